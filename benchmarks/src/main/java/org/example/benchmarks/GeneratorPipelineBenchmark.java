@@ -0,0 +1,170 @@
+package org.example.benchmarks;
+
+import org.example.models.SheetFormat;
+import org.example.service.images.ConnectedComponents;
+import org.example.service.images.TileExecutor;
+import org.example.service.images.TiledImageOps;
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.GrayRaster;
+import org.example.service.images.raster.RasterPool;
+import org.example.service.pdf.PdfSheetWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный путь генераторов от декодированного изображения до PDF: масштабирование на лист,
+ * перевод в оттенки серого, бинаризация пресета и запись листа.
+ * photo - упорядоченный дизеринг, mono - порог 128, custom - порог brightness и удаление деталей меньше denoising.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class GeneratorPipelineBenchmark {
+
+    @Param({"A4", "A3", "A2", "A1", "A0"})
+    public String format;
+
+    /** Размер входного фото по длинной стороне: сжатое фото Telegram, 5 Мп и 12 Мп документ. */
+    @Param({"1280", "2560", "4000"})
+    public int inputSize;
+
+    @Param({"150"})
+    public int dpi;
+
+    @Param({"100"})
+    public int brightness;
+
+    @Param({"64"})
+    public int denoising;
+
+    private TileExecutor tileExecutor;
+    private TiledImageOps imageOps;
+    private PdfSheetWriter pdfWriter;
+    private SheetFormat sheetFormat;
+    private BufferedImage source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tileExecutor = new TileExecutor(TileExecutor.Mode.PER_JOB, 0, 64);
+        RasterPool pool = new RasterPool(256L << 20);
+        imageOps = new TiledImageOps(tileExecutor, pool, new ConnectedComponents(tileExecutor, pool));
+        pdfWriter = new PdfSheetWriter(8L << 20);
+        sheetFormat = SheetFormat.valueOf(format);
+        source = syntheticPhoto(inputSize, inputSize * 3 / 4, 42);
+        target = Files.createTempFile("bench-sheet", ".pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tileExecutor.shutdown();
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long photo() throws IOException {
+        GrayRaster gray = imageOps.toGray(toSheet(source));
+        BitMask mask;
+        try {
+            mask = imageOps.orderedDither(gray);
+        } finally {
+            imageOps.release(gray);
+        }
+        return write(mask);
+    }
+
+    @Benchmark
+    public long mono() throws IOException {
+        GrayRaster gray = imageOps.toGray(toSheet(source));
+        BitMask mask;
+        try {
+            mask = imageOps.threshold(gray, 128);
+        } finally {
+            imageOps.release(gray);
+        }
+        return write(mask);
+    }
+
+    @Benchmark
+    public long custom() throws IOException {
+        GrayRaster gray = imageOps.toGray(toSheet(source));
+        BitMask mask;
+        try {
+            mask = imageOps.threshold(gray, brightness);
+        } finally {
+            imageOps.release(gray);
+        }
+        imageOps.removeSmallDetails(mask, denoising);
+        return write(mask);
+    }
+
+    private long write(BitMask mask) throws IOException {
+        try {
+            pdfWriter.writeBinary(target, sheetFormat, mask);
+        } finally {
+            imageOps.release(mask);
+        }
+        return Files.size(target);
+    }
+
+    private BufferedImage toSheet(BufferedImage image) {
+        boolean landscape = image.getWidth() > image.getHeight();
+        int w = landscape ? sheetFormat.getHeightPx(dpi) : sheetFormat.getWidthPx(dpi);
+        int h = landscape ? sheetFormat.getWidthPx(dpi) : sheetFormat.getHeightPx(dpi);
+        BufferedImage sheet = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = sheet.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return sheet;
+    }
+
+    /** Градиент с шумом, фигурами и мелкими пятнами, чтобы порог и удаление деталей работали как на фото. */
+    static BufferedImage syntheticPhoto(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = (x * 255 / width + y * 255 / height) / 2;
+                int v = Math.max(0, Math.min(255, base + random.nextInt(41) - 20));
+                image.setRGB(x, y, (v << 16) | (v << 8) | v);
+            }
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setStroke(new BasicStroke(Math.max(2, width / 200f)));
+            for (int i = 0; i < 40; i++) {
+                g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+                int size = random.nextInt(width / 4) + 10;
+                if (i % 2 == 0) {
+                    g.fillOval(random.nextInt(width), random.nextInt(height), size, size);
+                } else {
+                    g.drawRect(random.nextInt(width), random.nextInt(height), size, size / 2);
+                }
+            }
+            g.setColor(Color.BLACK);
+            for (int i = 0; i < width * height / 2000; i++) {
+                g.fillRect(random.nextInt(width), random.nextInt(height), 2, 2);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
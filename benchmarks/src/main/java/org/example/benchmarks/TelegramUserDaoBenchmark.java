@@ -0,0 +1,134 @@
+package org.example.benchmarks;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.example.config.JpaConfig;
+import org.example.dao.TelegramUserCache;
+import org.example.dao.TelegramUserDao;
+import org.example.dao.TelegramUserWriteBuffer;
+import org.example.models.TelegramUser;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import jakarta.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Горячие пути TelegramUserDao на настоящем PostgreSQL: встроенный сервер (embedded-postgres)
+ * или локальная база, если задан -Dbench.jdbc.url (и bench.jdbc.user, bench.jdbc.password).
+ * lookupCached - попадание в TelegramUserCache, lookupUncached и upsert - запрос в базу.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TelegramUserDaoBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    private EmbeddedPostgres postgres;
+    private AnnotationConfigApplicationContext context;
+    private TelegramUserDao dao;
+    private TelegramUserCache cache;
+
+    @Configuration
+    @EnableTransactionManagement
+    @Import({JpaConfig.class, TelegramUserDao.class, TelegramUserCache.class, TelegramUserWriteBuffer.class})
+    static class DaoConfig {
+
+        @Bean
+        static PropertySourcesPlaceholderConfigurer placeholders() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean
+        JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+            return new JpaTransactionManager(entityManagerFactory);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DataSource dataSource;
+        String url = System.getProperty("bench.jdbc.url");
+        if (url != null) {
+            dataSource = new DriverManagerDataSource(url, System.getProperty("bench.jdbc.user", "postgres"),
+                    System.getProperty("bench.jdbc.password", ""));
+        } else {
+            postgres = EmbeddedPostgres.start();
+            dataSource = postgres.getPostgresDatabase();
+        }
+        createSchema(new JdbcTemplate(dataSource));
+
+        context = new AnnotationConfigApplicationContext();
+        context.registerBean(DataSource.class, () -> dataSource);
+        context.register(DaoConfig.class);
+        context.refresh();
+        dao = context.getBean(TelegramUserDao.class);
+        cache = context.getBean(TelegramUserCache.class);
+        for (long id = 0; id < users; id++) {
+            dao.findOrCreate(id, "user_" + id, "en");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Benchmark
+    public TelegramUser lookupCached() {
+        return dao.getByTelegramUserId(ThreadLocalRandom.current().nextLong(users));
+    }
+
+    @Benchmark
+    public TelegramUser lookupUncached() {
+        long id = ThreadLocalRandom.current().nextLong(users);
+        cache.invalidate(id);
+        return dao.getByTelegramUserId(id);
+    }
+
+    @Benchmark
+    public TelegramUser upsert() {
+        long id = ThreadLocalRandom.current().nextLong(users * 2L);
+        cache.invalidate(id);
+        return dao.findOrCreate(id, "user_" + id, "ru");
+    }
+
+    private static void createSchema(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS telegram_user (" +
+                "id BIGSERIAL PRIMARY KEY, " +
+                "telegram_user_id BIGINT NOT NULL CONSTRAINT telegram_user_telegram_user_id_key UNIQUE, " +
+                "telegram_user_name VARCHAR(255), " +
+                "locale VARCHAR(2) DEFAULT '', " +
+                "registration_time TIMESTAMP, " +
+                "last_active_time TIMESTAMP, " +
+                "brightness_level INTEGER, " +
+                "small_details_remover INTEGER, " +
+                "sheet_format VARCHAR(20) DEFAULT 'A4', " +
+                "file_id VARCHAR(120), " +
+                "render_quality VARCHAR(10) DEFAULT 'auto')");
+    }
+}
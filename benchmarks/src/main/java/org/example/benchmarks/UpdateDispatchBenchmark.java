@@ -0,0 +1,58 @@
+package org.example.benchmarks;
+
+import org.example.service.dispatch.UpdateDispatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность UpdateDispatcher: пачка апдейтов от users пользователей,
+ * обработчик имитирует короткую работу (обращение к кэшу, ответ в очередь отправки).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateDispatchBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"1", "100", "10000"})
+    public int users;
+
+    @Param({"64"})
+    public int maxConcurrency;
+
+    @Param({"1024"})
+    public int maxPending;
+
+    private UpdateDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dispatcher = new UpdateDispatcher(maxConcurrency, maxPending);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void dispatchBatch() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            long userId = i % users;
+            dispatcher.dispatch(userId, () -> {
+                Blackhole.consumeCPU(200);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
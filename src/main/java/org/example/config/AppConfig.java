@@ -3,16 +3,22 @@ package org.example.config;
 import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+
+import java.util.Locale;
 
 @Configuration
 public class AppConfig {
 
     @Bean
     public MessageSource messageSource() {
-        ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+        // перечитывается через MessageTemplates.reload
+        ReloadableResourceBundleMessageSource messageSource = new ReloadableResourceBundleMessageSource();
         messageSource.setDefaultEncoding("UTF-8");
-        messageSource.setBasename("tg_messages.messages"); // указываем префикс для имен файлов
+        messageSource.setBasename("classpath:tg_messages/messages"); // указываем префикс для имен файлов
+        // шаблоны собираются до Locale.setDefault в TelegramBot, поэтому локаль системы не используется
+        messageSource.setFallbackToSystemLocale(false);
+        messageSource.setDefaultLocale(Locale.ENGLISH);
         return messageSource;
     }
 }
@@ -11,4 +11,18 @@ public class TelegramConfig {
     private String name;
     @Value("${bot.token}")
     private String token;
+    @Value("${bot.api-url:https://api.telegram.org}")
+    private String apiUrl;
+    @Value("${bot.max-threads:8}")
+    private int maxThreads;
+    @Value("${bot.mode:polling}")
+    private String mode;
+    @Value("${bot.webhook.url:}")
+    private String webhookUrl;
+    @Value("${bot.webhook.path:/telegram/webhook}")
+    private String webhookPath;
+    @Value("${bot.webhook.secret:}")
+    private String webhookSecret;
+    @Value("${bot.webhook.max-connections:40}")
+    private int webhookMaxConnections;
 }
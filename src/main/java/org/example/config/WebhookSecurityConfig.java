@@ -0,0 +1,32 @@
+package org.example.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.web.SecurityFilterChain;
+
+/**
+ * Пропускает запросы Telegram к webhook без аутентификации и CSRF-токена,
+ * подлинность проверяется обязательным заголовком X-Telegram-Bot-Api-Secret-Token. Остальные адреса защищены как по умолчанию.
+ */
+@Configuration
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookSecurityConfig {
+
+    @Bean
+    public SecurityFilterChain webhookSecurityFilterChain(HttpSecurity http,
+                                                         @Value("${bot.webhook.path:/telegram/webhook}") String path) throws Exception {
+        return http
+                .authorizeHttpRequests(requests -> requests
+                        .requestMatchers(HttpMethod.POST, path).permitAll()
+                        .anyRequest().authenticated())
+                .csrf(csrf -> csrf.ignoringRequestMatchers(path))
+                .httpBasic(Customizer.withDefaults())
+                .formLogin(Customizer.withDefaults())
+                .build();
+    }
+}
@@ -3,9 +3,30 @@ package org.example.controllers;
 import lombok.Getter;
 import org.example.config.TelegramConfig;
 import org.example.dao.TelegramUserDao;
+import org.example.models.GenerationJob;
 import org.example.models.TelegramUser;
 import org.example.service.filesenders.TelegramFileSender;
 import org.example.service.StickPickService;
+import org.example.service.albums.AlbumRenderer;
+import org.example.service.albums.MediaGroupCollector;
+import org.example.service.commands.CommandContext;
+import org.example.service.commands.CommandRouter;
+import org.example.service.dispatch.UpdateDispatcher;
+import org.example.service.filefetch.TelegramFileFetcher;
+import org.example.service.images.DecodedImageCache;
+import org.example.service.images.ImageDecoder;
+import org.example.service.images.ImageTooLargeException;
+import org.example.service.jobs.JobJournal;
+import org.example.service.messages.MessageTemplates;
+import org.example.service.preview.PreviewRenderer;
+import org.example.service.results.ResultCache;
+import org.example.service.sending.FileIdIndex;
+import org.example.service.sending.OutboundMessageQueue;
+import org.example.service.spool.SpoolDirectory;
+import org.example.service.spool.SpoolWorker;
+import org.example.service.storage.OutputStorage;
+import org.example.service.scheduling.GenerationScheduler;
+import org.example.service.scheduling.RenderTierPolicy;
 import org.example.service.generators.CustomPropertiesGenerator;
 import org.example.service.generators.MonochromePresetGenerator;
 import org.example.service.generators.PhotoPresetGenerator;
@@ -13,13 +34,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.stereotype.Controller;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
-import org.telegram.telegrambots.meta.api.methods.GetFile;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.objects.File;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.media.InputMedia;
 import org.telegram.telegrambots.meta.api.objects.media.InputMediaDocument;
 import org.telegram.telegrambots.meta.api.objects.media.InputMediaPhoto;
@@ -27,14 +52,16 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 
 @Controller
@@ -52,35 +79,193 @@ public class TelegramBot extends TelegramLongPollingBot {
     @Getter
     private final StickPickService stickPickService;
 
+    @Getter
+    private final UpdateDispatcher updateDispatcher;
+
+    @Getter
+    private final TelegramFileFetcher fileFetcher;
+
+    @Getter
+    private final DecodedImageCache imageCache;
+
+    @Getter
+    private final ImageDecoder imageDecoder;
+
+    @Getter
+    private final GenerationScheduler generationScheduler;
+
+    @Getter
+    private final PreviewRenderer previewRenderer;
+
+    @Getter
+    private final ResultCache resultCache;
+
+    @Getter
+    private final FileIdIndex fileIdIndex;
+
+    @Getter
+    private final OutboundMessageQueue outboundQueue;
+
+    @Getter
+    private final CommandRouter commandRouter;
+
+    @Getter
+    private final MessageTemplates messageTemplates;
+
+    @Getter
+    private final JobJournal jobJournal;
+
+    @Getter
+    private final SpoolDirectory spoolDirectory;
+
+    @Getter
+    private final OutputStorage outputStorage;
+
+    @Getter
+    private final RenderTierPolicy renderTierPolicy;
+
+    @Getter
+    private final MediaGroupCollector mediaGroupCollector;
+
+    @Getter
+    private final AlbumRenderer albumRenderer;
+
     @Getter
     private final Set<String> validFormats = new TreeSet<>(Arrays.asList("A0", "A1", "A2", "A3", "A4"));
 
     public String getValidFormatsCommands() {
-        StringBuilder b = new StringBuilder();
-        for (String s : validFormats) {
-            b.append("/").append(s).append(" ");
-        }
-        return b.toString();
+        return messageTemplates.getValidFormatsCommands();
     }
 
     @Getter
     @Value("${filepath}")
     private String filepath;
 
+    // генерация в отдельных процессах профиля worker через SpoolDirectory
+    @Value("${spool.submit.enabled:false}")
+    private boolean spoolSubmit;
+
+    // альбомы рендерятся приближениями PreviewRenderer.Style мимо генераторов, журнала задач и SpoolDirectory
+    @Value("${album.enabled:false}")
+    private boolean albumEnabled;
+
     @Autowired
-    public TelegramBot(MessageSource messageSource, TelegramConfig config, TelegramUserDao telegramUserDao, StickPickService stickPickService) {
-        super(config.getToken());
+    public TelegramBot(MessageSource messageSource, TelegramConfig config, TelegramUserDao telegramUserDao, StickPickService stickPickService,
+                       UpdateDispatcher updateDispatcher, TelegramFileFetcher fileFetcher,
+                       DecodedImageCache imageCache, ImageDecoder imageDecoder,
+                       GenerationScheduler generationScheduler, PreviewRenderer previewRenderer,
+                       ResultCache resultCache, FileIdIndex fileIdIndex,
+                       OutboundMessageQueue outboundQueue, MessageTemplates messageTemplates,
+                       JobJournal jobJournal, SpoolDirectory spoolDirectory, SpoolWorker spoolWorker,
+                       OutputStorage outputStorage, RenderTierPolicy renderTierPolicy,
+                       MediaGroupCollector mediaGroupCollector, AlbumRenderer albumRenderer) {
+        super(botOptions(config), config.getToken());
         this.messageSource = messageSource;
         this.config = config;
         this.telegramUserDao = telegramUserDao;
         this.stickPickService = stickPickService;
+        this.updateDispatcher = updateDispatcher;
+        this.fileFetcher = fileFetcher;
+        this.imageCache = imageCache;
+        this.imageDecoder = imageDecoder;
+        this.generationScheduler = generationScheduler;
+        this.previewRenderer = previewRenderer;
+        this.resultCache = resultCache;
+        this.fileIdIndex = fileIdIndex;
+        this.outboundQueue = outboundQueue;
+        this.messageTemplates = messageTemplates;
+        this.jobJournal = jobJournal;
+        this.spoolDirectory = spoolDirectory;
+        this.outputStorage = outputStorage;
+        this.renderTierPolicy = renderTierPolicy;
+        this.mediaGroupCollector = mediaGroupCollector;
+        this.albumRenderer = albumRenderer;
+        jobJournal.setReplayer(this::replayJob);
+        spoolWorker.setHandler(this::runSpoolJob);
+        renderTierPolicy.setUpgrader(this::upgradeJob);
+        mediaGroupCollector.setHandler(this::albumCollected);
+        this.commandRouter = createCommandRouter();
         Locale.setDefault(Locale.ENGLISH);
     }
 
+    private CommandRouter createCommandRouter() {
+        CommandRouter router = new CommandRouter();
+        router.callback("lang", c -> sendLangSettings(c.chatId(), c.user().getLocale()))
+                .callback("instruction", c -> sendSimpleMassage(c.user().getTelegramUserId(),
+                        messageTemplates.of(c.locale()).text("instruction.message")))
+                .callback("photoPreset", c -> photoPresetProcessing(c.user(), c.locale()))
+                .callback("monochromePreset", c -> monochromePresetProcessing(c.user(), c.locale()))
+                .callback("customProperties", c -> customPropertiesProcessing(c.user(), c.locale()));
+        for (String lang : List.of("en", "ru")) {
+            router.callback(lang, c -> {
+                c.user().setLocale(lang);
+                telegramUserDao.update(c.user());
+                sendStartMassage(c.chatId(), lang);
+            });
+        }
+
+        router.command("/start", c -> sendStartMassage(c.user().getTelegramUserId(), c.user().getLocale()))
+                .command("/instruction", c -> sendSimpleMassage(c.user().getTelegramUserId(),
+                        messageTemplates.of(c.locale()).text("instruction.message")))
+                .command("/lang", c -> sendLangSettings(c.user().getTelegramUserId(), c.user().getLocale()))
+                .command("/settings", c -> sendSimpleMassage(c.user().getTelegramUserId(),
+                        messageTemplates.of(c.locale()).text("properties.message")))
+                .command("/photo", c -> photoPresetProcessing(c.user(), c.locale()))
+                .command("/mono", c -> monochromePresetProcessing(c.user(), c.locale()))
+                .command("/custom", c -> customPropertiesProcessing(c.user(), c.locale()));
+        for (String format : validFormats) {
+            router.command("/" + format, c -> acceptProperty(c, u -> u.setSheetFormat(format)));
+        }
+
+        router.setting("format", c -> {
+            String format = c.argument().toUpperCase();
+            if (validFormats.contains(format)) {
+                acceptProperty(c, u -> u.setSheetFormat(format));
+            } else {
+                sendSimpleMassage(c.user().getTelegramUserId(),
+                        messageTemplates.of(c.locale()).text("format.reject"));
+            }
+        });
+        router.setting("quality", c -> {
+            String quality = c.argument().toLowerCase();
+            if (List.of(TelegramUser.QUALITY_AUTO, TelegramUser.QUALITY_DRAFT, TelegramUser.QUALITY_FULL).contains(quality)) {
+                acceptProperty(c, u -> u.setRenderQuality(quality));
+            } else {
+                sendSimpleMassage(c.user().getTelegramUserId(),
+                        messageTemplates.of(c.locale()).text("quality.reject"));
+            }
+        });
+        router.intSetting("denoising", (c, value) -> acceptProperty(c, u -> u.setSmallDetailsRemover(value)),
+                c -> sendSimpleMassage(c.user().getTelegramUserId(), messageTemplates.of(c.locale()).text("denoising.reject")));
+        CommandRouter.Handler brightnessReject = c -> sendSimpleMassage(c.user().getTelegramUserId(),
+                messageTemplates.of(c.locale()).text("brightness.reject"));
+        router.intSetting("brightness", (c, value) -> {
+            if (value >= 0 && value <= 255) {
+                acceptProperty(c, u -> u.setBrightnessLevel(value));
+            } else {
+                brightnessReject.handle(c);
+            }
+        }, brightnessReject);
+        return router;
+    }
+
+    private void acceptProperty(CommandContext context, Consumer<TelegramUser> change) {
+        change.accept(context.user());
+        telegramUserDao.update(context.user());
+        sendSimpleMassage(context.user().getTelegramUserId(), messageTemplates.of(context.locale()).text("property.accept"));
+    }
+
+    private static DefaultBotOptions botOptions(TelegramConfig config) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(config.getApiUrl() + "/bot");
+        // executeAsync выполняется в пуле бота, по умолчанию в нем один поток
+        options.setMaxThreads(config.getMaxThreads());
+        return options;
+    }
+
     @Override
     public void onUpdateReceived(Update update) {
         if (update != null) {
-            TelegramUser telegramUser;
             Long updateUserId = null;
             if (update.hasMessage()) {
                 updateUserId = update.getMessage().getFrom().getId();
@@ -90,140 +275,45 @@ public class TelegramBot extends TelegramLongPollingBot {
             if (updateUserId == null) {
                 return;
             }
-            if (telegramUserDao.existsByTelegramUserId(updateUserId)) {
-                telegramUser = telegramUserDao.getByTelegramUserId(updateUserId);
-            } else {
-                telegramUser = new TelegramUser();
-                telegramUser.setTelegramUserId(updateUserId);
-                telegramUser.setLocale(update.getMessage().getFrom().getLanguageCode());
-                if (update.getMessage().getFrom().getUserName() != null) {
-                    telegramUser.setTelegramUserName(update.getMessage().getFrom().getUserName());
-                }
-                telegramUserDao.update(telegramUser);
-            }
+            Long userId = updateUserId;
+            updateDispatcher.dispatch(userId, () -> handleUpdate(update, userId));
+        }
+    }
 
-            String locale = telegramUser.getLocale();
-            Locale l = new Locale(locale);
-
-            if (update.hasCallbackQuery()) {
-                switch (update.getCallbackQuery().getData()) {
-                    case "lang":
-                        sendLangSettings(update.getCallbackQuery().getMessage().getChatId(), locale);
-                        break;
-                    case "instruction":
-                        sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("instruction.message", null, l));
-                        break;
-                    case "photoPreset":
-                        photoPresetProcessing(telegramUser, new Locale(locale));
-                        break;
-                    case "monochromePreset":
-                        monochromePresetProcessing(telegramUser, new Locale(locale));
-                        break;
-                    case "customProperties":
-                        customPropertiesProcessing(telegramUser, new Locale(locale));
-                        break;
-                    case "en":
-                    case "ru":
-                        telegramUser.setLocale(update.getCallbackQuery().getData());
-                        telegramUserDao.update(telegramUser);
-                        sendStartMassage(update.getCallbackQuery().getMessage().getChatId(), telegramUser.getLocale());
-                        break;
-                }
+    private void handleUpdate(Update update, Long updateUserId) {
+        User from = update.hasMessage() ? update.getMessage().getFrom() : update.getCallbackQuery().getFrom();
+        TelegramUser telegramUser = telegramUserDao.findOrCreate(updateUserId, from.getUserName(), from.getLanguageCode());
+        telegramUserDao.touch(telegramUser);
+
+        String locale = telegramUser.getLocale();
+        Locale l = new Locale(locale);
+        CommandContext context = new CommandContext(update, telegramUser, l, null);
+
+        if (update.hasCallbackQuery()) {
+            commandRouter.routeCallback(update.getCallbackQuery().getData(), context);
+        }
+        if (update.hasMessage()) {
+            if (update.getMessage().hasText()) {
+                commandRouter.routeText(update.getMessage().getText(), context);
             }
-            if (update.hasMessage()) {
-                if (update.getMessage().hasText()) {
-                    switch (update.getMessage().getText()) {
-                        case "/start":
-                            sendStartMassage(telegramUser.getTelegramUserId(), locale);
-                            break;
-                        case "/instruction":
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("instruction.message", null, l));
-                            break;
-                        case "/lang":
-                            sendLangSettings(telegramUser.getTelegramUserId(), locale);
-                            break;
-                        case "/settings":
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("properties.message", null, l));
-                            break;
-                        case "/A0":
-                        case "/A1":
-                        case "/A2":
-                        case "/A3":
-                        case "/A4":
-                            telegramUser.setSheetFormat(update.getMessage().getText().substring(1));
-                            telegramUserDao.update(telegramUser);
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("property.accept", null, l));
-                            break;
-                        case "/photo":
-                            photoPresetProcessing(telegramUser, new Locale(locale));
-                            break;
-                        case "/mono":
-                            monochromePresetProcessing(telegramUser, new Locale(locale));
-                            break;
-                        case "/custom":
-                            customPropertiesProcessing(telegramUser, new Locale(locale));
-                    }
-                    if (update.getMessage().getText().startsWith("format=")) {
-                        int index = update.getMessage().getText().indexOf('=');
-                        String format = update.getMessage().getText().substring(index + 1).toUpperCase();
-                        if (validFormats.contains(format)) {
-                            telegramUser.setSheetFormat(format);
-                            telegramUserDao.update(telegramUser);
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("property.accept", null, l));
-                        } else {
-                            sendSimpleMassage(telegramUser.getTelegramUserId(),
-                                    messageSource.getMessage("format.reject", null, l) + " " + getValidFormatsCommands());
-                        }
-                    }
-                    if (update.getMessage().getText().startsWith("denoising=")) {
-                        int index = update.getMessage().getText().indexOf('=');
-                        String s = update.getMessage().getText().substring(index + 1).toUpperCase();
-                        try {
-                            int value = Integer.parseInt(s);
-                            telegramUser.setSmallDetailsRemover(value);
-                            telegramUserDao.update(telegramUser);
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("property.accept", null, l));
-                        } catch (NumberFormatException e) {
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("denoising.reject", null, l));
-                        }
-                    }
-                    if (update.getMessage().getText().startsWith("brightness=")) {
-                        int index = update.getMessage().getText().indexOf('=');
-                        String s = update.getMessage().getText().substring(index + 1).toUpperCase();
-                        try {
-                            int value = Integer.parseInt(s);
-                            if (value >= 0 && value <= 255) {
-                                telegramUser.setBrightnessLevel(value);
-                                telegramUserDao.update(telegramUser);
-                                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("property.accept", null, l));
-                            } else {
-                                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("brightness.reject", null, l));
-                            }
-                        } catch (NumberFormatException e) {
-                            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("brightness.reject", null, l));
-                        }
-                    }
-                }
-                if (update.getMessage().hasPhoto()) {
-                    var photos = update.getMessage().getPhoto();
-                    if (photos.isEmpty()) {
-                        return;
-                    }
-                    String fileId = photos.stream().max(Comparator.comparing(PhotoSize::getFileSize)).get().getFileId();
-                    telegramUser.setFileId(fileId);
-                    telegramUserDao.update(telegramUser);
-                    sendDefaultArtSettings(update.getMessage().getChatId(), locale);
+            if (update.getMessage().hasPhoto()) {
+                var photos = update.getMessage().getPhoto();
+                if (photos.isEmpty()) {
+                    return;
                 }
-                if (update.getMessage().hasDocument()) {
-                    var documents = update.getMessage().getDocument();
-                    String fileId = documents.getFileId();
-                    if (isImageFile(fileId)) {
-                        telegramUser.setFileId(fileId);
-                        telegramUserDao.update(telegramUser);
-                        sendDefaultArtSettings(update.getMessage().getChatId(), locale);
-                    } else {
-                        sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("no.photo.file.reject", null, l));
-                    }
+                PhotoSize photo = photos.stream().max(Comparator.comparing(PhotoSize::getFileSize)).get();
+                String fileId = photo.getFileId();
+                fileFetcher.remember(fileId, photo.getFileUniqueId());
+                acceptImage(telegramUser, update.getMessage(), fileId, locale);
+            }
+            if (update.getMessage().hasDocument()) {
+                var documents = update.getMessage().getDocument();
+                String fileId = documents.getFileId();
+                fileFetcher.remember(fileId, documents.getFileUniqueId());
+                if (isImageFile(fileId)) {
+                    acceptImage(telegramUser, update.getMessage(), fileId, locale);
+                } else {
+                    sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(l).text("no.photo.file.reject"));
                 }
             }
         }
@@ -234,187 +324,400 @@ public class TelegramBot extends TelegramLongPollingBot {
         return config.getName();
     }
 
-    private void photoPresetProcessing(TelegramUser telegramUser, Locale locale) {
-        if (telegramUser.getSheetFormat() == null){
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("no.found.format.reject", null, locale)
-                    + " " + getValidFormatsCommands());
+    private void acceptImage(TelegramUser telegramUser, Message message, String fileId, String locale) {
+        telegramUser.setFileId(fileId);
+        telegramUserDao.update(telegramUser);
+        if (albumEnabled && message.getMediaGroupId() != null) {
+            // настройки отправляются один раз, когда соберется весь альбом
+            mediaGroupCollector.offer(telegramUser.getTelegramUserId(), message.getChatId(), message.getMediaGroupId(), fileId);
             return;
         }
-        BufferedImage image = getImageFromFileId(telegramUser.getFileId());
-        if (image != null) {
-            String folderName = (telegramUser.getTelegramUserName() != null ?
-                    telegramUser.getTelegramUserName() + "_" : "id" + telegramUser.getTelegramUserId() + "_") +
-                    Long.toHexString(System.currentTimeMillis());
-            if (stickPickService.add(new PhotoPresetGenerator(image, telegramUser.getSheetFormat(), filepath, folderName),
-                    new TelegramFileSender(this, telegramUser,
-                            Arrays.asList(Paths.get(filepath + "\\" + folderName + "\\result.pdf"),
-                                    Paths.get(filepath + "\\" + folderName + "\\preview.pdf"))))) {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("generating.start", null, locale));
-            } else {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("queue.overflow", null, locale));
+        mediaGroupCollector.forget(telegramUser.getTelegramUserId());
+        sendDefaultArtSettings(message.getChatId(), locale);
+    }
+
+    private void albumCollected(Long telegramUserId, Long chatId, MediaGroupCollector.Album album) {
+        updateDispatcher.dispatch(telegramUserId, () -> {
+            TelegramUser telegramUser = telegramUserDao.findByTelegramUserId(telegramUserId);
+            if (telegramUser != null) {
+                sendDefaultArtSettings(chatId, telegramUser.getLocale());
             }
-        } else {
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("missing.file.reject", null, locale));
+        });
+    }
+
+    private void photoPresetProcessing(TelegramUser telegramUser, Locale locale) {
+        if (telegramUser.getSheetFormat() == null){
+            sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(locale).text("no.found.format.reject"));
+            return;
         }
+        startGeneration(telegramUser, locale, GenerationJob.PRESET_PHOTO, null, null, PreviewRenderer.Style.photo());
     }
 
     private void monochromePresetProcessing(TelegramUser telegramUser, Locale locale) {
         if (telegramUser.getSheetFormat() == null){
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("no.found.format.reject", null, locale)
-                    + " " + getValidFormatsCommands());
+            sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(locale).text("no.found.format.reject"));
             return;
         }
-        BufferedImage image = getImageFromFileId(telegramUser.getFileId());
-        if (image != null) {
-            String folderName = (telegramUser.getTelegramUserName() != null ?
-                    telegramUser.getTelegramUserName() + "_" : "id" + telegramUser.getTelegramUserId() + "_") +
-                    Long.toHexString(System.currentTimeMillis());
-            if (stickPickService.add(new MonochromePresetGenerator(image, telegramUser.getSheetFormat(), filepath, folderName),
-                    new TelegramFileSender(this, telegramUser,
-                            Arrays.asList(Paths.get(filepath + "\\" + folderName + "\\result.pdf"),
-                                    Paths.get(filepath + "\\" + folderName + "\\preview.pdf"))))) {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("generating.start", null, locale));
-            } else {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("queue.overflow", null, locale));
-            }
-        } else {
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("missing.file.reject", null, locale));
-        }
+        startGeneration(telegramUser, locale, GenerationJob.PRESET_MONOCHROME, null, null, PreviewRenderer.Style.monochrome());
     }
 
     private void customPropertiesProcessing(TelegramUser telegramUser, Locale locale) {
         if (telegramUser.getSheetFormat() == null){
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("no.found.format.reject", null, locale)
-                    + " " + getValidFormatsCommands());
+            sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(locale).text("no.found.format.reject"));
             return;
         }
         if (telegramUser.getBrightnessLevel() == null || telegramUser.getSmallDetailsRemover() == null){    //ОБЯЗАТЕЛЬНЫЕ НАСТРОЙКИ
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("no.found.custom.properties.reject", null, locale));
+            sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(locale).text("no.found.custom.properties.reject"));
             return;
         }
-        BufferedImage image = getImageFromFileId(telegramUser.getFileId());
-        if (image != null) {
-            String folderName = (telegramUser.getTelegramUserName() != null ?
-                    telegramUser.getTelegramUserName() + "_" : "id" + telegramUser.getTelegramUserId() + "_") +
-                    Long.toHexString(System.currentTimeMillis());
-            if (stickPickService.add(new CustomPropertiesGenerator(image, telegramUser.getSheetFormat(), filepath, folderName,
-                            telegramUser.getSmallDetailsRemover() != null ? telegramUser.getSmallDetailsRemover() : 128,
-                            telegramUser.getBrightnessLevel() != null ? telegramUser.getBrightnessLevel() : 100),
-                    new TelegramFileSender(this, telegramUser,
-                            Arrays.asList(Paths.get(filepath + "\\" + folderName + "\\result.pdf"),
-                                    Paths.get(filepath + "\\" + folderName + "\\preview.pdf"))))) {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("generating.start", null, locale));
-            } else {
-                sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("queue.overflow", null, locale));
-            }
-        } else {
-            sendSimpleMassage(telegramUser.getTelegramUserId(), messageSource.getMessage("missing.file.reject", null, locale));
+        int smallDetailsRemover = telegramUser.getSmallDetailsRemover();
+        int brightnessLevel = telegramUser.getBrightnessLevel();
+        startGeneration(telegramUser, locale, GenerationJob.PRESET_CUSTOM, brightnessLevel, smallDetailsRemover,
+                PreviewRenderer.Style.custom(brightnessLevel, smallDetailsRemover));
+    }
+
+    private void startGeneration(TelegramUser telegramUser, Locale locale, String preset, Integer brightnessLevel,
+                                 Integer smallDetailsRemover, PreviewRenderer.Style previewStyle) {
+        renderTierPolicy.forget(telegramUser.getTelegramUserId());
+        MediaGroupCollector.Album album = mediaGroupCollector.album(telegramUser.getTelegramUserId());
+        if (albumEnabled && album != null && album.fileIds().size() > 1 && album.contains(telegramUser.getFileId())) {
+            startAlbum(telegramUser, locale, album, previewStyle);
+            return;
+        }
+        GenerationJob job = newJob(telegramUser, telegramUser.getFileId(), telegramUser.getSheetFormat(), preset,
+                brightnessLevel, smallDetailsRemover);
+        ResultCache.Key resultKey = resultKey(job);
+        if (replyFromResultCache(telegramUser.getTelegramUserId(), resultKey)) {
+            return;
+        }
+        job.setTier(chooseTier(telegramUser, job.getFileId(), job.getSheetFormat()));
+        BufferedImage image = getImageOrReject(telegramUser.getTelegramUserId(), locale, job.getFileId(),
+                job.getSheetFormat(), job.getTier());
+        if (image == null) {
+            return;
+        }
+        if (resultKey == null) {
+            // file_unique_id стал известен только после скачивания, например после перезапуска
+            resultKey = resultKey(job);
         }
+        if (!launch(job, telegramUser, image, resultKey)) {
+            sendSimpleMassage(telegramUser.getTelegramUserId(), messageTemplates.of(locale).text("queue.overflow"));
+            return;
+        }
+        // черновик из-за нагрузки, а не по настройке пользователя, позже пересчитывается в полном качестве
+        boolean autoDraft = GenerationJob.TIER_DRAFT.equals(job.getTier())
+                && !TelegramUser.QUALITY_DRAFT.equals(telegramUser.getRenderQuality());
+        if (autoDraft) {
+            renderTierPolicy.offerUpgrade(job);
+        }
+        sendSimpleMassage(telegramUser.getTelegramUserId(),
+                messageTemplates.of(locale).text(autoDraft ? "generating.draft" : "generating.start"));
+        sendQuickPreview(telegramUser.getTelegramUserId(), image, job.getSheetFormat(), job.getFolderName(), previewStyle);
     }
 
-    public void sendSimpleMassage(Long chatId, String message) {
+    private GenerationJob newJob(TelegramUser telegramUser, String fileId, String sheetFormat, String preset,
+                                 Integer brightnessLevel, Integer smallDetailsRemover) {
+        GenerationJob job = new GenerationJob();
+        job.setTelegramUserId(telegramUser.getTelegramUserId());
+        job.setFileId(fileId);
+        job.setPreset(preset);
+        job.setSheetFormat(sheetFormat);
+        job.setBrightnessLevel(brightnessLevel);
+        job.setSmallDetailsRemover(smallDetailsRemover);
+        job.setFolderName(newFolderName(telegramUser));
+        return job;
+    }
+
+    private static String newFolderName(TelegramUser telegramUser) {
+        return (telegramUser.getTelegramUserName() != null ?
+                telegramUser.getTelegramUserName() + "_" : "id" + telegramUser.getTelegramUserId() + "_") +
+                Long.toHexString(System.currentTimeMillis());
+    }
+
+    /** Все фото альбома одним многостраничным result.pdf. */
+    private void startAlbum(TelegramUser telegramUser, Locale locale, MediaGroupCollector.Album album,
+                            PreviewRenderer.Style style) {
+        Long chatId = telegramUser.getTelegramUserId();
+        String sheetFormat = telegramUser.getSheetFormat();
+        String tier = chooseTier(telegramUser, album.fileIds().get(0), sheetFormat);
+        BufferedImage first = getImageOrReject(chatId, locale, album.fileIds().get(0), sheetFormat, tier);
+        if (first == null) {
+            return;
+        }
+        String folderName = newFolderName(telegramUser);
+        try {
+            outputStorage.create(folderName, sheetFormat);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Path target = outputStorage.folder(folderName).resolve(OutputStorage.RESULT_FILE);
+        List<AlbumRenderer.PageLoader> loaders = album.fileIds().stream()
+                .<AlbumRenderer.PageLoader>map(fileId -> () -> getImageFromFileId(fileId, sheetFormat, tier))
+                .toList();
+        MessageTemplates.Localized templates = messageTemplates.of(locale);
+        GenerationScheduler.SubmitResult result = generationScheduler.submit(chatId,
+                GenerationScheduler.estimateCost(first, sheetFormat) * loaders.size(),
+                () -> {
+                    CompletableFuture<Path> rendered = albumRenderer.submit(loaders, sheetFormat, style, decodeDpi(tier),
+                            target, (done, total) -> sendAlbumProgress(chatId, templates, done, total));
+                    if (rendered == null) {
+                        return false;
+                    }
+                    rendered.thenCompose(pdf -> sendDocument(chatId, pdf))
+                            .whenComplete((sent, e) -> outputStorage.release(target.getParent()))
+                            .exceptionally(e -> {
+                                e.printStackTrace();
+                                sendSimpleMassage(chatId, templates.text("album.failed"));
+                                return null;
+                            });
+                    return true;
+                },
+                () -> {
+                    // пользователь прислал новую задачу, пока альбом ждал очереди
+                    outputStorage.release(target.getParent());
+                    sendSimpleMassage(chatId, templates.text("album.superseded"));
+                });
+        if (result == GenerationScheduler.SubmitResult.REJECTED) {
+            outputStorage.release(target.getParent());
+            sendSimpleMassage(chatId, templates.text("queue.overflow"));
+            return;
+        }
+        sendSimpleMassage(chatId, MessageFormat.format(templates.text("album.start"), loaders.size()));
+    }
+
+    private void sendAlbumProgress(Long chatId, MessageTemplates.Localized templates, int done, int total) {
         SendMessage sendMessage = new SendMessage();
         sendMessage.setChatId(chatId);
-        sendMessage.setText(message);
+        sendMessage.setText(MessageFormat.format(templates.text("album.progress"), done, total));
+        // пока прошлое сообщение о прогрессе ждет отправки, оно заменяется новым, а не копится
+        outboundQueue.submit(chatId, "album.progress", () -> executeAsync(sendMessage))
+                .exceptionally(this::logSendFailure);
+    }
+
+    /** Записывает задачу в журнал и ставит в очередь, false если очередь переполнена. */
+    private boolean launch(GenerationJob job, TelegramUser telegramUser, BufferedImage image, ResultCache.Key resultKey) {
         try {
-            execute(sendMessage);
-        } catch (TelegramApiException e) {
+            outputStorage.create(job.getFolderName(), job.getSheetFormat());
+        } catch (IOException e) {
+            // генератор создаст папку на диске сам
+            e.printStackTrace();
+        }
+        jobJournal.record(job);
+        // до постановки в очередь, быстрая задача может завершиться раньше, чем submit вернется;
+        // черновики в кэш результатов не попадают
+        Path folder = outputStorage.folder(job.getFolderName());
+        if (resultKey != null && GenerationJob.TIER_FULL.equals(job.getTier())) {
+            resultCache.expect(resultKey, folder);
+        }
+        if (submitGeneration(job, telegramUser, image) == GenerationScheduler.SubmitResult.REJECTED) {
+            jobJournal.rejected(job);
+            resultCache.forget(folder);
+            return false;
         }
+        return true;
     }
 
-    private void sendStartMassage(Long chatId, String locale) {
-        Locale l = new Locale(locale);
+    /** Полная версия черновика, когда очередь освободилась. */
+    private boolean upgradeJob(GenerationJob draft) {
+        TelegramUser telegramUser = telegramUserDao.findByTelegramUserId(draft.getTelegramUserId());
+        if (telegramUser == null) {
+            return true;
+        }
+        GenerationJob job = newJob(telegramUser, draft.getFileId(), draft.getSheetFormat(), draft.getPreset(),
+                draft.getBrightnessLevel(), draft.getSmallDetailsRemover());
+        BufferedImage image = getImageFromFileId(job.getFileId(), job.getSheetFormat(), GenerationJob.TIER_FULL);
+        if (image == null) {
+            return true;
+        }
+        if (!launch(job, telegramUser, image, resultKey(job))) {
+            return false;
+        }
+        sendSimpleMassage(telegramUser.getTelegramUserId(),
+                messageTemplates.of(new Locale(telegramUser.getLocale())).text("generating.upgrade"));
+        return true;
+    }
 
-        SendMessage sendMessage = new SendMessage();
-        sendMessage.setChatId(chatId);
-        sendMessage.setText(messageSource.getMessage("start.message", null, l));
+    private GenerationScheduler.SubmitResult submitGeneration(GenerationJob job, TelegramUser telegramUser, BufferedImage image) {
+        Path source = spoolSubmit ? getSourcePath(job.getFileId()) : null;
+        return generationScheduler.submit(job.getTelegramUserId(),
+                GenerationScheduler.estimateCost(image, job.getSheetFormat()),
+                // в очередь идет только путь к исходному файлу, изображение декодирует исполнитель
+                spoolSubmit && source != null ? () -> spoolDirectory.submit(job, source)
+                        : () -> addGeneration(job, telegramUser, image),
+                () -> {
+                    jobJournal.cancelled(job);
+                    resultCache.forget(outputStorage.folder(job.getFolderName()));
+                });
+    }
 
-        InlineKeyboardMarkup inlineKeyboardMarkup = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-        List<InlineKeyboardButton> rowInline1 = new ArrayList<>();
+    private boolean addGeneration(GenerationJob job, TelegramUser telegramUser, BufferedImage image) {
+        String sheetFormat = job.getSheetFormat();
+        String folderName = job.getFolderName();
+        String root = outputStorage.folder(folderName).getParent().toString();
+        return stickPickService.add(switch (job.getPreset()) {
+                    case GenerationJob.PRESET_MONOCHROME ->
+                            new MonochromePresetGenerator(image, sheetFormat, root, folderName);
+                    case GenerationJob.PRESET_CUSTOM ->
+                            new CustomPropertiesGenerator(image, sheetFormat, root, folderName,
+                                    job.getSmallDetailsRemover(), job.getBrightnessLevel());
+                    default -> new PhotoPresetGenerator(image, sheetFormat, root, folderName);
+                },
+                new TelegramFileSender(this, telegramUser, outputStorage.resultFiles(folderName)));
+    }
 
-        InlineKeyboardButton inlineKeyboardButton1 = new InlineKeyboardButton();
-        inlineKeyboardButton1.setText(messageSource.getMessage("lang.button", null, l));
-        inlineKeyboardButton1.setCallbackData("lang");
+    /** Повтор задачи из журнала после перезапуска или падения другого узла. */
+    private boolean replayJob(GenerationJob job) {
+        TelegramUser telegramUser = telegramUserDao.findByTelegramUserId(job.getTelegramUserId());
+        BufferedImage image = telegramUser != null
+                ? getImageFromFileId(job.getFileId(), job.getSheetFormat(), job.getTier()) : null;
+        if (image == null) {
+            jobJournal.failed(job);
+            return true;
+        }
+        return submitGeneration(job, telegramUser, image) != GenerationScheduler.SubmitResult.REJECTED;
+    }
 
-        InlineKeyboardButton inlineKeyboardButton2 = new InlineKeyboardButton();
-        inlineKeyboardButton2.setText(messageSource.getMessage("instruction.button", null, l));
-        inlineKeyboardButton2.setCallbackData("instruction");
+    /** Задача из SpoolDirectory в процессе-исполнителе, генерация идет в куче этого процесса. */
+    private boolean runSpoolJob(GenerationJob job, Path source) {
+        if (!jobJournal.adopt(job)) {
+            // аренда истекла, задачу уже повторяет журнал
+            return true;
+        }
+        try {
+            TelegramUser telegramUser = telegramUserDao.findByTelegramUserId(job.getTelegramUserId());
+            BufferedImage image = telegramUser != null ? getImage(job, source) : null;
+            if (image == null) {
+                jobJournal.failed(job);
+                return true;
+            }
+            if (!addGeneration(job, telegramUser, image)) {
+                jobJournal.disown(job);
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // аренда уже у этого узла, без failed журнал продлевал бы ее до max-runtime
+            jobJournal.failed(job);
+            throw e;
+        }
+    }
 
-        rowInline1.add(inlineKeyboardButton1);
-        rowInline1.add(inlineKeyboardButton2);
-        rowsInline.add(rowInline1);
-        inlineKeyboardMarkup.setKeyboard(rowsInline);
-        sendMessage.setReplyMarkup(inlineKeyboardMarkup);
+    private BufferedImage getImage(GenerationJob job, Path source) {
+        if (!Files.isRegularFile(source)) {
+            // файл вытеснен из кэша загрузок, скачиваем заново
+            return getImageFromFileId(job.getFileId(), job.getSheetFormat(), job.getTier());
+        }
         try {
-            execute(sendMessage);
-        } catch (TelegramApiException e) {
+            return imageCache.get(imageCacheKey(job.getFileId(), job.getSheetFormat(), job.getTier()),
+                    () -> imageDecoder.decode(source, job.getSheetFormat(), decodeDpi(job.getTier())));
+        } catch (NoSuchFileException e) {
+            // кэш загрузок общий с другим процессом и файл вытеснили после проверки
+            return getImageFromFileId(job.getFileId(), job.getSheetFormat(), job.getTier());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        return null;
     }
 
-    private void sendLangSettings(Long chatId, String locale) {
-        Locale l = new Locale(locale);
+    private Path getSourcePath(String fileId) {
+        try {
+            return fileFetcher.fetch(fileId);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-        SendMessage sendMessage = new SendMessage();
-        sendMessage.setChatId(chatId);
-        sendMessage.setText(messageSource.getMessage("lang.message", null, l));
+    private ResultCache.Key resultKey(GenerationJob job) {
+        String contentId = fileFetcher.getUniqueId(job.getFileId());
+        if (contentId == null) {
+            return null;
+        }
+        return new ResultCache.Key(contentId, job.getPreset(), job.getSheetFormat(), job.getBrightnessLevel(),
+                job.getSmallDetailsRemover());
+    }
 
-        InlineKeyboardMarkup inlineKeyboardMarkup = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-        List<InlineKeyboardButton> rowInline1 = new ArrayList<>();
+    private boolean replyFromResultCache(Long chatId, ResultCache.Key key) {
+        if (key == null) {
+            return false;
+        }
+        ResultCache.Entry entry = resultCache.lookup(key);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.hasFileIds()) {
+            sendDocumentsByFileId(chatId, entry.fileIds());
+        } else {
+            sendDocumentGroup(chatId, entry.files());
+        }
+        return true;
+    }
 
-        InlineKeyboardButton inlineKeyboardButton1 = new InlineKeyboardButton();
-        inlineKeyboardButton1.setText(messageSource.getMessage("lang.en", null, l));
-        inlineKeyboardButton1.setCallbackData("en");
+    private void sendQuickPreview(Long chatId, BufferedImage image, String sheetFormat, String folderName,
+                                  PreviewRenderer.Style style) {
+        if (!previewRenderer.isEnabled()) {
+            return;
+        }
+        previewRenderer.render(image, sheetFormat, style, outputStorage.folder(folderName).resolve(PreviewRenderer.FILE_NAME))
+                .thenCompose(preview -> sendPhoto(chatId, preview).whenComplete((message, e) -> deleteQuietly(preview)))
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return null;
+                });
+    }
 
-        InlineKeyboardButton inlineKeyboardButton2 = new InlineKeyboardButton();
-        inlineKeyboardButton2.setText(messageSource.getMessage("lang.ru", null, l));
-        inlineKeyboardButton2.setCallbackData("ru");
+    /** Фото загружается как есть, без FileIdIndex: превью каждый раз новое. */
+    private CompletableFuture<Message> sendPhoto(Long chatId, Path photoPath) {
+        SendPhoto sendPhoto = new SendPhoto();
+        sendPhoto.setChatId(chatId);
+        sendPhoto.setPhoto(new InputFile(photoPath.toFile(), photoPath.getFileName().toString()));
+        return outboundQueue.submit(chatId, null, () -> executeAsync(sendPhoto));
+    }
 
-        rowInline1.add(inlineKeyboardButton1);
-        rowInline1.add(inlineKeyboardButton2);
-        rowsInline.add(rowInline1);
-        inlineKeyboardMarkup.setKeyboard(rowsInline);
-        sendMessage.setReplyMarkup(inlineKeyboardMarkup);
+    private static void deleteQuietly(Path file) {
         try {
-            execute(sendMessage);
-        } catch (TelegramApiException e) {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    private void sendDefaultArtSettings(Long chatId, String locale) {
-        Locale l = new Locale(locale);
-
+    public void sendSimpleMassage(Long chatId, String message) {
         SendMessage sendMessage = new SendMessage();
         sendMessage.setChatId(chatId);
-        sendMessage.setText(messageSource.getMessage("choose.preset.message", null, l) + " " + getValidFormatsCommands() + "\n\n" +
-                messageSource.getMessage("custom.preset.message", null, l));
-
-        InlineKeyboardMarkup inlineKeyboardMarkup = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rowsInline = new ArrayList<>();
-
-        InlineKeyboardButton inlineKeyboardButton1 = new InlineKeyboardButton();
-        inlineKeyboardButton1.setText(messageSource.getMessage("photo.preset.button", null, l));
-        inlineKeyboardButton1.setCallbackData("photoPreset");
-        rowsInline.add(Collections.singletonList(inlineKeyboardButton1)); // Добавляем кнопку в новом ряду
+        sendMessage.setText(message);
+        outboundQueue.submit(chatId, "text:" + message, () -> executeAsync(sendMessage))
+                .exceptionally(this::logSendFailure);
+    }
 
-        InlineKeyboardButton inlineKeyboardButton2 = new InlineKeyboardButton();
-        inlineKeyboardButton2.setText(messageSource.getMessage("monochrome.preset.button", null, l));
-        inlineKeyboardButton2.setCallbackData("monochromePreset");
-        rowsInline.add(Collections.singletonList(inlineKeyboardButton2)); // Добавляем кнопку в новом ряду
+    private void sendStartMassage(Long chatId, String locale) {
+        MessageTemplates.Localized templates = messageTemplates.of(locale);
+        SendMessage sendMessage = new SendMessage();
+        sendMessage.setChatId(chatId);
+        sendMessage.setText(templates.text("start.message"));
+        sendMessage.setReplyMarkup(templates.keyboard(MessageTemplates.Keyboard.START));
+        outboundQueue.submit(chatId, "start:" + locale, () -> executeAsync(sendMessage))
+                .exceptionally(this::logSendFailure);
+    }
 
-        InlineKeyboardButton inlineKeyboardButton3 = new InlineKeyboardButton();
-        inlineKeyboardButton3.setText(messageSource.getMessage("custom.properties.button", null, l));
-        inlineKeyboardButton3.setCallbackData("customProperties");
-        rowsInline.add(Collections.singletonList(inlineKeyboardButton3)); // Добавляем кнопку в новом ряду
+    private void sendLangSettings(Long chatId, String locale) {
+        MessageTemplates.Localized templates = messageTemplates.of(locale);
+        SendMessage sendMessage = new SendMessage();
+        sendMessage.setChatId(chatId);
+        sendMessage.setText(templates.text("lang.message"));
+        sendMessage.setReplyMarkup(templates.keyboard(MessageTemplates.Keyboard.LANG));
+        outboundQueue.submit(chatId, "lang:" + locale, () -> executeAsync(sendMessage))
+                .exceptionally(this::logSendFailure);
+    }
 
-        inlineKeyboardMarkup.setKeyboard(rowsInline);
-        sendMessage.setReplyMarkup(inlineKeyboardMarkup);
-        try {
-            execute(sendMessage);
-        } catch (TelegramApiException e) {
-            e.printStackTrace(); // Не игнорируем исключение, а печатаем стек вызова для диагностики
-        }
+    private void sendDefaultArtSettings(Long chatId, String locale) {
+        MessageTemplates.Localized templates = messageTemplates.of(locale);
+        SendMessage sendMessage = new SendMessage();
+        sendMessage.setChatId(chatId);
+        sendMessage.setText(templates.text(MessageTemplates.ART_SETTINGS));
+        sendMessage.setReplyMarkup(templates.keyboard(MessageTemplates.Keyboard.ART_SETTINGS));
+        outboundQueue.submit(chatId, "settings:" + locale, () -> executeAsync(sendMessage))
+                .exceptionally(this::logSendFailure);
     }
 
     /*
@@ -466,67 +769,210 @@ public class TelegramBot extends TelegramLongPollingBot {
      */
 
     public void sendImageGroup(Long chatId, List<Path> imagePaths) {
-        SendMediaGroup sendMediaGroup = new SendMediaGroup();
-        sendMediaGroup.setChatId(chatId);
-        List<InputMedia> media = new ArrayList<>();
-        for (Path imagePath : imagePaths) {
-            InputMediaPhoto inputMediaPhoto = new InputMediaPhoto();
-            inputMediaPhoto.setMedia(imagePath.toFile(), imagePath.getFileName().toString());
-            media.add(inputMediaPhoto);
+        sendMediaGroup(chatId, imagePaths, FileIdIndex.PHOTO);
+    }
+
+    public CompletableFuture<Message> sendDocument(Long chatId, Path documentPath) {
+        String knownFileId = fileIdIndex.lookup(documentPath, FileIdIndex.DOCUMENT);
+        SendDocument sendDocument = new SendDocument();
+        sendDocument.setChatId(chatId);
+        sendDocument.setDocument(knownFileId != null ? new InputFile(knownFileId)
+                : new InputFile(documentPath.toFile(), documentPath.getFileName().toString()));
+        return outboundQueue.submit(chatId, null, () -> executeAsync(sendDocument)).handle((message, e) -> {
+            if (e == null) {
+                if (knownFileId == null) {
+                    fileIdIndex.record(documentPath, FileIdIndex.DOCUMENT, FileIdIndex.fileIdOf(message, FileIdIndex.DOCUMENT));
+                }
+                return CompletableFuture.completedFuture(message);
+            } else if (knownFileId != null && FileIdIndex.isRejectedFileId(e)) {
+                fileIdIndex.forget(documentPath, FileIdIndex.DOCUMENT);
+                return sendDocument(chatId, documentPath);
+            }
+            logSendFailure(e);
+            return CompletableFuture.<Message>failedFuture(e);
+        }).thenCompose(result -> result);
+    }
+
+    public void sendDocumentGroup(Long chatId, List<Path> documentPaths) {
+        List<String> fileIds = sendMediaGroup(chatId, documentPaths, FileIdIndex.DOCUMENT);
+        if (fileIds != null && !documentPaths.isEmpty()) {
+            Path folder = documentPaths.get(0).toAbsolutePath().normalize().getParent();
+            if (folder != null && folder.getFileName() != null) {
+                jobJournal.completed(folder.getFileName().toString());
+                // повторные запросы обслужит ResultCache по file_id
+                outputStorage.release(folder);
+            }
+        }
+        resultCache.completed(documentPaths, fileIds);
+    }
+
+    /**
+     * Файлы, которые уже загружались, отправляются по file_id из FileIdIndex, остальные загружаются
+     * и их file_id запоминаются. Если Telegram ответил, что сохраненный file_id неверен, группа отправляется заново
+     * с загрузкой; остальные ошибки file_id не трогают.
+     *
+     * @return file_id отправленных файлов или null, если отправка не удалась
+     */
+    private List<String> sendMediaGroup(Long chatId, List<Path> paths, String mediaType) {
+        List<String> knownFileIds = new ArrayList<>();
+        for (Path path : paths) {
+            knownFileIds.add(fileIdIndex.lookup(path, mediaType));
         }
-        sendMediaGroup.setMedias(media);
         try {
-            execute(sendMediaGroup);
+            return executeMediaGroup(chatId, paths, knownFileIds, mediaType);
         } catch (TelegramApiException e) {
+            if (knownFileIds.stream().allMatch(Objects::isNull) || !FileIdIndex.isRejectedFileId(e)) {
+                return logSendFailure(e);
+            }
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            if (knownFileIds.get(i) != null) {
+                fileIdIndex.forget(paths.get(i), mediaType);
+            }
+        }
+        try {
+            return executeMediaGroup(chatId, paths, Collections.nCopies(paths.size(), null), mediaType);
+        } catch (TelegramApiException e) {
+            return logSendFailure(e);
         }
     }
 
-    public void sendDocumentGroup(Long chatId, List<Path> documentPaths) {
+    private List<String> executeMediaGroup(Long chatId, List<Path> paths, List<String> knownFileIds, String mediaType)
+            throws TelegramApiException {
         SendMediaGroup sendMediaGroup = new SendMediaGroup();
         sendMediaGroup.setChatId(chatId);
         List<InputMedia> media = new ArrayList<>();
-        for (Path documentPath : documentPaths) {
-            InputMediaDocument inputMediaDocument = new InputMediaDocument();
-            inputMediaDocument.setMedia(documentPath.toFile(), documentPath.getFileName().toString());
-            media.add(inputMediaDocument);
+        for (int i = 0; i < paths.size(); i++) {
+            InputMedia inputMedia = FileIdIndex.PHOTO.equals(mediaType) ? new InputMediaPhoto() : new InputMediaDocument();
+            if (knownFileIds.get(i) != null) {
+                inputMedia.setMedia(knownFileIds.get(i));
+            } else {
+                inputMedia.setMedia(paths.get(i).toFile(), paths.get(i).getFileName().toString());
+            }
+            media.add(inputMedia);
         }
         sendMediaGroup.setMedias(media);
+        List<Message> messages = sendQueued(chatId, () -> executeAsync(sendMediaGroup));
+        List<String> fileIds = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String fileId = i < messages.size() ? FileIdIndex.fileIdOf(messages.get(i), mediaType) : null;
+            if (knownFileIds.get(i) == null && fileId != null) {
+                fileIdIndex.record(paths.get(i), mediaType, fileId);
+            }
+            fileIds.add(fileId);
+        }
+        return fileIds;
+    }
+
+    public void sendDocumentsByFileId(Long chatId, List<String> fileIds) {
         try {
-            execute(sendMediaGroup);
+            if (fileIds.size() == 1) {
+                SendDocument sendDocument = new SendDocument();
+                sendDocument.setChatId(chatId);
+                sendDocument.setDocument(new InputFile(fileIds.get(0)));
+                sendQueued(chatId, () -> executeAsync(sendDocument));
+                return;
+            }
+            SendMediaGroup sendMediaGroup = new SendMediaGroup();
+            sendMediaGroup.setChatId(chatId);
+            List<InputMedia> media = new ArrayList<>();
+            for (String fileId : fileIds) {
+                InputMediaDocument inputMediaDocument = new InputMediaDocument();
+                inputMediaDocument.setMedia(fileId);
+                media.add(inputMediaDocument);
+            }
+            sendMediaGroup.setMedias(media);
+            sendQueued(chatId, () -> executeAsync(sendMediaGroup));
         } catch (TelegramApiException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Отправляет запрос через OutboundMessageQueue и ждет ответа. */
+    private <T> T sendQueued(Long chatId, OutboundMessageQueue.Send<T> send) throws TelegramApiException {
+        try {
+            return outboundQueue.submit(chatId, null, send).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TelegramApiException apiException) {
+                throw apiException;
+            }
+            throw new TelegramApiException(e.getCause());
         }
     }
 
+    private <T> T logSendFailure(Throwable e) {
+        e.printStackTrace();
+        return null;
+    }
+
     public BufferedImage getImageFromFileId(String fileId) {
+        return getImageFromFileId(fileId, null);
+    }
+
+    public BufferedImage getImageFromFileId(String fileId, String sheetFormat) {
+        return getImageFromFileId(fileId, sheetFormat, GenerationJob.TIER_FULL);
+    }
+
+    public BufferedImage getImageFromFileId(String fileId, String sheetFormat, String tier) {
         try {
-            GetFile getFileRequest = new GetFile();
-            getFileRequest.setFileId(fileId);
-            File file = execute(getFileRequest);
-            String fileUrl = getFileUrl(file.getFilePath());
-            InputStream inputStream = new URL(fileUrl).openStream();
-            return ImageIO.read(inputStream);
-        } catch (TelegramApiException | IOException e) {
+            return decodeImage(fileId, sheetFormat, tier);
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /** Изображение для новой генерации, null если его нет, и тогда пользователю уже отправлен отказ. */
+    private BufferedImage getImageOrReject(Long chatId, Locale locale, String fileId, String sheetFormat, String tier) {
+        String reject = "missing.file.reject";
+        try {
+            BufferedImage image = decodeImage(fileId, sheetFormat, tier);
+            if (image != null) {
+                return image;
+            }
+        } catch (ImageTooLargeException e) {
+            reject = "image.too.large.reject";
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        sendSimpleMassage(chatId, messageTemplates.of(locale).text(reject));
+        return null;
+    }
+
+    private BufferedImage decodeImage(String fileId, String sheetFormat, String tier) throws IOException {
+        // изображение общее для всех генераторов, изменять его нельзя
+        return imageCache.get(imageCacheKey(fileId, sheetFormat, tier),
+                () -> fileFetcher.read(fileId, path -> imageDecoder.decode(path, sheetFormat, decodeDpi(tier))));
+    }
+
+    private String chooseTier(TelegramUser telegramUser, String fileId, String sheetFormat) {
+        try {
+            return fileFetcher.read(fileId,
+                    path -> renderTierPolicy.choose(telegramUser.getRenderQuality(), path, sheetFormat));
+        } catch (IOException e) {
+            // файл недоступен, об этом сообщит декодирование
+            return GenerationJob.TIER_FULL;
+        }
+    }
+
+    private static String imageCacheKey(String fileId, String sheetFormat, String tier) {
+        return GenerationJob.TIER_DRAFT.equals(tier) ? fileId + ":" + sheetFormat + ":draft" : fileId + ":" + sheetFormat;
+    }
+
+    private int decodeDpi(String tier) {
+        return GenerationJob.TIER_DRAFT.equals(tier) ? renderTierPolicy.getDraftDpi() : imageDecoder.getDpi();
+    }
+
     public boolean isImageFile(String fileId) {
         try {
-            GetFile getFileRequest = new GetFile();
-            getFileRequest.setFileId(fileId);
-            File file = execute(getFileRequest);
-            String fileUrl = getFileUrl(file.getFilePath());
-            InputStream inputStream = new URL(fileUrl).openStream();
-            BufferedImage image = ImageIO.read(inputStream);
-            return image != null;
-        } catch (TelegramApiException | IOException e) {
+            return fileFetcher.isImage(fileId);
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return false;
     }
 
     public String getFileUrl(String filePath) throws TelegramApiException {
-        return "https://api.telegram.org/file/bot" + config.getToken() + "/" + filePath;
+        return config.getApiUrl() + "/file/bot" + config.getToken() + "/" + filePath;
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package org.example.controllers;
+
+import org.example.config.TelegramConfig;
+import org.example.service.webhook.WebhookIngestion;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+@RestController
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookController {
+
+    private final TelegramConfig config;
+
+    private final WebhookIngestion ingestion;
+
+    public WebhookController(TelegramConfig config, WebhookIngestion ingestion) {
+        if (config.getWebhookSecret().isBlank()) {
+            throw new IllegalStateException("bot.webhook.secret must be set when bot.mode=webhook");
+        }
+        this.config = config;
+        this.ingestion = ingestion;
+    }
+
+    @PostMapping("${bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(@RequestHeader(name = "X-Telegram-Bot-Api-Secret-Token", required = false) String secret,
+                                         @RequestBody Update update) {
+        if (secret == null || !MessageDigest.isEqual(
+                config.getWebhookSecret().getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ingestion.offer(update)
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+}
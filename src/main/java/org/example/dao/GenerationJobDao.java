@@ -0,0 +1,116 @@
+package org.example.dao;
+
+import org.example.models.GenerationJob;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Журнал задач генерации. Узел забирает задачи через SELECT ... FOR UPDATE SKIP LOCKED и держит их под арендой
+ * (owner, lease_until); задача с истекшей арендой снова доступна любому узлу.
+ */
+@Repository
+public class GenerationJobDao {
+
+    private static final RowMapper<GenerationJob> ROW_MAPPER = new BeanPropertyRowMapper<>(GenerationJob.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    public GenerationJobDao(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    /** Записывает задачу, которую узел owner уже выполняет, и возвращает ее id. */
+    public Long insertRunning(GenerationJob job, String owner, int leaseSeconds) {
+        return jdbcTemplate.queryForObject("INSERT INTO generation_job (telegram_user_id, file_id, preset, sheet_format, " +
+                        "brightness_level, small_details_remover, tier, folder_name, status, owner, lease_until, attempts, " +
+                        "created_time, updated_time) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 'RUNNING', ?, now() + make_interval(secs => ?), 1, now(), now()) " +
+                        "RETURNING id", Long.class,
+                job.getTelegramUserId(), job.getFileId(), job.getPreset(), job.getSheetFormat(),
+                job.getBrightnessLevel(), job.getSmallDetailsRemover(), job.getTier(), job.getFolderName(), owner,
+                leaseSeconds);
+    }
+
+    /**
+     * Забирает до limit задач: ожидающих и тех, чья аренда истекла.
+     * Параллельно работающие узлы пропускают строки, заблокированные друг другом.
+     */
+    public List<GenerationJob> claim(String owner, int leaseSeconds, int maxAttempts, int limit) {
+        return jdbcTemplate.query("UPDATE generation_job SET status = 'RUNNING', owner = ?, " +
+                        "lease_until = now() + make_interval(secs => ?), attempts = attempts + 1, updated_time = now() " +
+                        "WHERE id IN (SELECT id FROM generation_job " +
+                        "WHERE (status = 'QUEUED' OR (status = 'RUNNING' AND lease_until < now())) AND attempts < ? " +
+                        "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING *", ROW_MAPPER,
+                owner, leaseSeconds, maxAttempts, limit);
+    }
+
+    /** Продлевает аренду задач owner, возвращает id задач, которые он еще держит. */
+    public List<Long> renew(String owner, Collection<Long> ids, int leaseSeconds) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return namedJdbcTemplate.queryForList("UPDATE generation_job SET lease_until = now() + make_interval(secs => :lease) " +
+                        "WHERE id IN (:ids) AND owner = :owner AND status = 'RUNNING' RETURNING id",
+                new MapSqlParameterSource()
+                        .addValue("lease", leaseSeconds)
+                        .addValue("ids", ids)
+                        .addValue("owner", owner), Long.class);
+    }
+
+    /**
+     * Передает аренду задачи другому узлу, если ее еще держит from и задачу с тех пор не забирали повторно.
+     *
+     * @param attempts номер попытки, под которым задача была передана
+     */
+    public int transfer(Long id, String from, String to, Integer attempts, int leaseSeconds) {
+        return jdbcTemplate.update("UPDATE generation_job SET owner = ?, lease_until = now() + make_interval(secs => ?), " +
+                        "updated_time = now() WHERE id = ? AND owner = ? AND attempts = ? AND status = 'RUNNING'",
+                to, leaseSeconds, id, from, attempts);
+    }
+
+    public void finish(Long id, String status) {
+        jdbcTemplate.update("UPDATE generation_job SET status = ?, lease_until = NULL, updated_time = now() " +
+                "WHERE id = ? AND status IN ('QUEUED', 'RUNNING')", status, id);
+    }
+
+    /** Возвращает задачу в очередь без учета попытки, например если узел сейчас перегружен. */
+    public void release(Long id) {
+        jdbcTemplate.update("UPDATE generation_job SET status = 'QUEUED', owner = NULL, lease_until = NULL, " +
+                "attempts = GREATEST(attempts - 1, 0), updated_time = now() WHERE id = ? AND status = 'RUNNING'", id);
+    }
+
+    /** Отмечает выполненной задачу по папке результата, возвращает ее id. */
+    public List<Long> completeByFolder(String folderName) {
+        return jdbcTemplate.queryForList("UPDATE generation_job SET status = 'DONE', lease_until = NULL, updated_time = now() " +
+                "WHERE folder_name = ? AND status IN ('QUEUED', 'RUNNING') RETURNING id", Long.class, folderName);
+    }
+
+    /** Задачи, оставшиеся за этим же узлом после перезапуска, возвращаются в очередь. */
+    public int requeueOwned(String owner) {
+        return jdbcTemplate.update("UPDATE generation_job SET status = 'QUEUED', owner = NULL, lease_until = NULL, " +
+                "updated_time = now() WHERE owner = ? AND status = 'RUNNING'", owner);
+    }
+
+    public int failExhausted(int maxAttempts) {
+        return jdbcTemplate.update("UPDATE generation_job SET status = 'FAILED', lease_until = NULL, updated_time = now() " +
+                "WHERE status = 'RUNNING' AND lease_until < now() AND attempts >= ?", maxAttempts);
+    }
+
+    public int deleteFinishedBefore(Date time) {
+        return jdbcTemplate.update("DELETE FROM generation_job WHERE status IN ('DONE', 'FAILED', 'CANCELLED') " +
+                "AND updated_time < ?", new Timestamp(time.getTime()));
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Date;
+
+@Repository
+public class ProcessedUpdateDao {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProcessedUpdateDao(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Отмечает апдейт как полученный.
+     *
+     * @return false, если апдейт уже получил этот или другой экземпляр бота
+     */
+    public boolean markReceived(Long updateId) {
+        return jdbcTemplate.update("INSERT INTO processed_update (update_id, received_time) VALUES (?, now()) " +
+                "ON CONFLICT (update_id) DO NOTHING", updateId) > 0;
+    }
+
+    public void delete(Long updateId) {
+        jdbcTemplate.update("DELETE FROM processed_update WHERE update_id = ?", updateId);
+    }
+
+    public int deleteReceivedBefore(Date time) {
+        return jdbcTemplate.update("DELETE FROM processed_update WHERE received_time < ?", new Timestamp(time.getTime()));
+    }
+}
@@ -0,0 +1,47 @@
+package org.example.dao;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.example.models.TelegramFile;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Transactional
+@Repository
+public class TelegramFileDao {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public String findFileId(String contentHash, String mediaType) {
+        List<?> fileIds = entityManager.createQuery("SELECT f.fileId FROM TelegramFile f " +
+                        "WHERE f.contentHash = :contentHash AND f.mediaType = :mediaType")
+                .setParameter("contentHash", contentHash)
+                .setParameter("mediaType", mediaType)
+                .getResultList();
+        return fileIds.isEmpty() ? null : (String) fileIds.get(0);
+    }
+
+    /** Сохраняет file_id, заменяя прежний для того же содержимого. */
+    public void save(String contentHash, String mediaType, String fileId, long fileSize) {
+        entityManager.createNativeQuery(
+                        "INSERT INTO telegram_file (content_hash, media_type, file_id, file_size, created_time) " +
+                                "VALUES (:contentHash, :mediaType, :fileId, :fileSize, now()) " +
+                                "ON CONFLICT (content_hash, media_type) DO UPDATE " +
+                                "SET file_id = EXCLUDED.file_id, file_size = EXCLUDED.file_size, created_time = now()")
+                .setParameter("contentHash", contentHash)
+                .setParameter("mediaType", mediaType)
+                .setParameter("fileId", fileId)
+                .setParameter("fileSize", fileSize)
+                .executeUpdate();
+    }
+
+    public void delete(String contentHash, String mediaType) {
+        entityManager.createQuery("DELETE FROM TelegramFile f WHERE f.contentHash = :contentHash AND f.mediaType = :mediaType")
+                .setParameter("contentHash", contentHash)
+                .setParameter("mediaType", mediaType)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.dao;
+
+import org.example.models.TelegramUser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-кэш пользователей по telegramUserId с ограничением по размеру и времени жизни записи.
+ * С bot.multi-instance кэш выключен: пользователя может изменить другой экземпляр, чтение идет в базу.
+ */
+@Component
+public class TelegramUserCache {
+
+    private final boolean enabled;
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<Long, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TelegramUserCache(@Value("${cache.users.max-size:10000}") int maxSize,
+                             @Value("${cache.users.ttl-seconds:1800}") long ttlSeconds,
+                             @Value("${bot.multi-instance:false}") boolean multiInstance) {
+        this.enabled = !multiInstance;
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > TelegramUserCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized TelegramUser get(Long telegramUserId) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(telegramUserId);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            entries.remove(telegramUserId);
+            evictions++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.user;
+    }
+
+    public synchronized void put(TelegramUser telegramUser) {
+        if (!enabled) {
+            return;
+        }
+        entries.put(telegramUser.getTelegramUserId(), new Entry(telegramUser, System.currentTimeMillis()));
+    }
+
+    public synchronized void invalidate(Long telegramUserId) {
+        entries.remove(telegramUserId);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private record Entry(TelegramUser user, long loadedAt) {
+    }
+}
@@ -1,11 +1,19 @@
 package org.example.dao;
 
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.NoResultException;
 import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolationException;
 import org.example.models.TelegramUser;
+import org.example.service.metrics.LatencyStats;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Date;
+import java.util.List;
+
 @Transactional
 @Repository
 public class TelegramUserDao {
@@ -13,14 +21,77 @@ public class TelegramUserDao {
     @PersistenceContext
     private EntityManager entityManager;
 
+    private final TelegramUserCache cache;
+
+    private final TelegramUserWriteBuffer writeBuffer;
+
+    private final LatencyStats selectStats = new LatencyStats("dao.user.select");
+    private final LatencyStats upsertStats = new LatencyStats("dao.user.upsert");
+
+    @Autowired
+    public TelegramUserDao(TelegramUserCache cache, TelegramUserWriteBuffer writeBuffer) {
+        this.cache = cache;
+        this.writeBuffer = writeBuffer;
+    }
+
     public TelegramUser getById(Long id) {
         return entityManager.find(TelegramUser.class, id);
     }
 
     public TelegramUser getByTelegramUserId(Long telegramUserId) {
-        return (TelegramUser) entityManager.createQuery("SELECT u FROM TelegramUser u WHERE u.telegramUserId = :telegramUserId")
+        TelegramUser telegramUser = findByTelegramUserId(telegramUserId);
+        if (telegramUser == null) {
+            throw new NoResultException("No TelegramUser with telegramUserId " + telegramUserId);
+        }
+        return telegramUser;
+    }
+
+    /** Как getByTelegramUserId, но для удаленного пользователя возвращает null. */
+    public TelegramUser findByTelegramUserId(Long telegramUserId) {
+        TelegramUser cached = cache.get(telegramUserId);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        List<TelegramUser> found = entityManager.createQuery(
+                        "SELECT u FROM TelegramUser u WHERE u.telegramUserId = :telegramUserId", TelegramUser.class)
                 .setParameter("telegramUserId", telegramUserId)
+                .getResultList();
+        selectStats.recordSince(start);
+        if (found.isEmpty()) {
+            return null;
+        }
+        TelegramUser telegramUser = found.get(0);
+        writeBuffer.applyPending(telegramUser);
+        cache.put(telegramUser);
+        return telegramUser;
+    }
+
+    /**
+     * Возвращает пользователя из кэша, а при промахе одним запросом вставляет или читает строку
+     * (INSERT ... ON CONFLICT по уникальному индексу telegram_user_id).
+     * Без транзакции, чтобы попадание в кэш не брало соединение из пула.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TelegramUser findOrCreate(Long telegramUserId, String telegramUserName, String locale) {
+        TelegramUser cached = cache.get(telegramUserId);
+        if (cached != null) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        TelegramUser telegramUser = (TelegramUser) entityManager.createNativeQuery(
+                        "INSERT INTO telegram_user (telegram_user_id, telegram_user_name, locale, sheet_format, registration_time) " +
+                                "VALUES (:telegramUserId, CAST(:telegramUserName AS VARCHAR), :locale, 'A4', now()) " +
+                                "ON CONFLICT (telegram_user_id) DO UPDATE SET telegram_user_id = EXCLUDED.telegram_user_id " +
+                                "RETURNING *", TelegramUser.class)
+                .setParameter("telegramUserId", telegramUserId)
+                .setParameter("telegramUserName", telegramUserName)
+                .setParameter("locale", locale != null ? locale : "")
                 .getSingleResult();
+        upsertStats.recordSince(start);
+        writeBuffer.applyPending(telegramUser);
+        cache.put(telegramUser);
+        return telegramUser;
     }
 
     public TelegramUser getByTelegramUserName(String telegramUserName) {
@@ -29,22 +100,51 @@ public class TelegramUserDao {
                 .getSingleResult();
     }
 
+    /**
+     * Изменения пользователя уходят в TelegramUserWriteBuffer и пишутся пакетом,
+     * новая запись сначала создается через findOrCreate, чтобы получить id.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void update(TelegramUser telegramUser) {
-        entityManager.merge(telegramUser);
+        if (telegramUser.getId() == null) {
+            TelegramUser stored = findOrCreate(telegramUser.getTelegramUserId(), telegramUser.getTelegramUserName(),
+                    telegramUser.getLocale());
+            telegramUser.setId(stored.getId());
+            if (telegramUser.getRegistrationTime() == null) {
+                telegramUser.setRegistrationTime(stored.getRegistrationTime());
+            }
+        }
+        try {
+            writeBuffer.enqueue(telegramUser);
+        } catch (ConstraintViolationException e) {
+            // в кэше мог остаться этот же измененный экземпляр, следующее чтение возьмет строку из базы
+            cache.invalidate(telegramUser.getTelegramUserId());
+            throw e;
+        }
+        cache.put(telegramUser);
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void touch(TelegramUser telegramUser) {
+        telegramUser.setLastActiveTime(new Date());
+        update(telegramUser);
     }
 
     public void deleteById(Long id) {
         TelegramUser telegramUser = getById(id);
         if (telegramUser != null) {
+            cache.invalidate(telegramUser.getTelegramUserId());
+            writeBuffer.discard(telegramUser.getTelegramUserId());
             entityManager.remove(telegramUser);
         }
     }
 
     public void deleteByTelegramUserId(Long telegramUserId) {
-        TelegramUser telegramUser = getByTelegramUserId(telegramUserId);
-        if (telegramUser != null) {
-            entityManager.remove(telegramUser);
-        }
+        cache.invalidate(telegramUserId);
+        writeBuffer.discard(telegramUserId);
+        entityManager.createQuery("DELETE FROM TelegramUser u WHERE u.telegramUserId = :telegramUserId")
+                .setParameter("telegramUserId", telegramUserId)
+                .executeUpdate();
     }
 
     public boolean existsById(Long id) {
@@ -52,6 +152,9 @@ public class TelegramUserDao {
     }
 
     public boolean existsByTelegramUserId(Long telegramUserId) {
+        if (cache.get(telegramUserId) != null) {
+            return true;
+        }
         Long count = (Long) entityManager.createQuery("SELECT COUNT(u) FROM TelegramUser u WHERE u.telegramUserId = :telegramUserId")
                 .setParameter("telegramUserId", telegramUserId)
                 .getSingleResult();
@@ -64,4 +167,8 @@ public class TelegramUserDao {
                 .getSingleResult();
         return count > 0;
     }
-}
\ No newline at end of file
+
+    public List<LatencyStats> getQueryStats() {
+        return List.of(selectStats, upsertStats);
+    }
+}
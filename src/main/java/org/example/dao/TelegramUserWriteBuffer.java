@@ -0,0 +1,284 @@
+package org.example.dao;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.ConstraintViolationException;
+import jakarta.validation.Validator;
+import org.example.models.TelegramUser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Отложенная запись изменений пользователей.
+ * Повторные изменения одного пользователя схлопываются в одну строку,
+ * накопленное пишется одним JDBC batch по таймеру или при заполнении буфера.
+ * Изменения проверяются bean validation при постановке, как раньше при merge. Если batch не прошел,
+ * строки пишутся по одной, и строка, не записанная maxAttempts раз подряд, отбрасывается.
+ * С bot.multi-instance изменения пишутся сразу в вызывающем потоке, чтобы их видели другие экземпляры.
+ */
+@Component
+public class TelegramUserWriteBuffer {
+
+    private static final String UPDATE_SQL = "UPDATE telegram_user SET telegram_user_name = ?, locale = ?, last_active_time = ?, " +
+            "brightness_level = ?, small_details_remover = ?, sheet_format = ?, file_id = ?, render_quality = ? " +
+            "WHERE telegram_user_id = ?";
+
+    private static final int[] UPDATE_TYPES = {Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP,
+            Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BIGINT};
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Validator validator;
+
+    private final int maxPending;
+
+    private final int maxAttempts;
+
+    private final boolean writeThrough;
+
+    private final ConcurrentHashMap<Long, Row> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "telegram-user-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final AtomicLong lastFlushLagMillis = new AtomicLong();
+    private final AtomicLong maxFlushLagMillis = new AtomicLong();
+
+    public TelegramUserWriteBuffer(JdbcTemplate jdbcTemplate, Validator validator,
+                                   @Value("${users.write-behind.flush-interval-ms:1000}") long flushIntervalMillis,
+                                   @Value("${users.write-behind.max-pending:500}") int maxPending,
+                                   @Value("${users.write-behind.max-attempts:3}") int maxAttempts,
+                                   @Value("${bot.multi-instance:false}") boolean multiInstance) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.validator = validator;
+        this.maxPending = maxPending;
+        this.maxAttempts = maxAttempts;
+        this.writeThrough = multiInstance;
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** @throws ConstraintViolationException если пользователь не проходит проверку полей */
+    public void enqueue(TelegramUser telegramUser) {
+        Set<ConstraintViolation<TelegramUser>> violations = validator.validate(telegramUser);
+        if (!violations.isEmpty()) {
+            throw new ConstraintViolationException(violations);
+        }
+        Row row = Row.of(telegramUser);
+        if (writeThrough) {
+            jdbcTemplate.update(UPDATE_SQL, row.toArgs(), UPDATE_TYPES);
+            rowsWritten.incrementAndGet();
+            return;
+        }
+        enqueued.incrementAndGet();
+        pending.merge(telegramUser.getTelegramUserId(), row, (old, fresh) -> {
+            coalesced.incrementAndGet();
+            return fresh.queuedSince(old.queuedAt);
+        });
+        if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    public void discard(Long telegramUserId) {
+        pending.remove(telegramUserId);
+    }
+
+    /** Накладывает еще не записанные изменения на пользователя, прочитанного из базы. */
+    public void applyPending(TelegramUser telegramUser) {
+        Row row = pending.get(telegramUser.getTelegramUserId());
+        if (row != null) {
+            row.applyTo(telegramUser);
+        }
+    }
+
+    public synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Row> rows = new ArrayList<>(pending.size());
+        for (Long telegramUserId : pending.keySet()) {
+            Row row = pending.remove(telegramUserId);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        long oldest = Long.MAX_VALUE;
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            oldest = Math.min(oldest, row.queuedAt);
+            args.add(row.toArgs());
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, args, UPDATE_TYPES);
+        } catch (DataAccessException e) {
+            failedFlushes.incrementAndGet();
+            e.printStackTrace();
+            // одна плохая строка не должна держать остальные
+            rows = writeOneByOne(rows);
+        }
+        long lag = System.currentTimeMillis() - oldest;
+        flushes.incrementAndGet();
+        rowsWritten.addAndGet(rows.size());
+        lastFlushLagMillis.set(lag);
+        maxFlushLagMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    /** @return записанные строки */
+    private List<Row> writeOneByOne(List<Row> rows) {
+        List<Row> written = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            try {
+                jdbcTemplate.update(UPDATE_SQL, row.toArgs(), UPDATE_TYPES);
+                written.add(row);
+            } catch (DataIntegrityViolationException e) {
+                if (row.failures + 1 >= maxAttempts) {
+                    droppedRows.incrementAndGet();
+                    System.err.println("Dropping write of telegram user " + row.telegramUserId
+                            + " after " + maxAttempts + " attempts");
+                    e.printStackTrace();
+                } else {
+                    requeue(row.failedOnce());
+                }
+            } catch (DataAccessException e) {
+                // база недоступна, строки не виноваты: возвращаем все оставшиеся без счета попыток
+                rows.subList(i, rows.size()).forEach(this::requeue);
+                break;
+            }
+        }
+        return written;
+    }
+
+    /** Возвращает строку в буфер, если ее не успели перезаписать более свежей. */
+    private void requeue(Row row) {
+        pending.putIfAbsent(row.telegramUserId, row);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /** Возраст самого старого незаписанного изменения, мс. */
+    public long getOldestPendingAgeMillis() {
+        long now = System.currentTimeMillis();
+        return pending.values().stream().mapToLong(row -> now - row.queuedAt).max().orElse(0);
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    /** Изменения, отброшенные после maxAttempts неудачных записей. */
+    public long getDroppedRows() {
+        return droppedRows.get();
+    }
+
+    public long getLastFlushLagMillis() {
+        return lastFlushLagMillis.get();
+    }
+
+    public long getMaxFlushLagMillis() {
+        return maxFlushLagMillis.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private record Row(Long telegramUserId, String telegramUserName, String locale, Date lastActiveTime,
+                       Integer brightnessLevel, Integer smallDetailsRemover, String sheetFormat, String fileId,
+                       String renderQuality, long queuedAt, int failures) {
+
+        static Row of(TelegramUser u) {
+            return new Row(u.getTelegramUserId(), u.getTelegramUserName(), u.getLocale(), u.getLastActiveTime(),
+                    u.getBrightnessLevel(), u.getSmallDetailsRemover(), u.getSheetFormat(), u.getFileId(),
+                    u.getRenderQuality(), System.currentTimeMillis(), 0);
+        }
+
+        Row queuedSince(long since) {
+            return new Row(telegramUserId, telegramUserName, locale, lastActiveTime,
+                    brightnessLevel, smallDetailsRemover, sheetFormat, fileId, renderQuality, since, 0);
+        }
+
+        Row failedOnce() {
+            return new Row(telegramUserId, telegramUserName, locale, lastActiveTime,
+                    brightnessLevel, smallDetailsRemover, sheetFormat, fileId, renderQuality, queuedAt, failures + 1);
+        }
+
+        void applyTo(TelegramUser u) {
+            u.setTelegramUserName(telegramUserName);
+            u.setLocale(locale);
+            u.setLastActiveTime(lastActiveTime);
+            u.setBrightnessLevel(brightnessLevel);
+            u.setSmallDetailsRemover(smallDetailsRemover);
+            u.setSheetFormat(sheetFormat);
+            u.setFileId(fileId);
+            u.setRenderQuality(renderQuality);
+        }
+
+        Object[] toArgs() {
+            return new Object[]{telegramUserName, locale,
+                    lastActiveTime != null ? new Timestamp(lastActiveTime.getTime()) : null,
+                    brightnessLevel, smallDetailsRemover, sheetFormat, fileId, renderQuality, telegramUserId};
+        }
+    }
+}
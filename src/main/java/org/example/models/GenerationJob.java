@@ -0,0 +1,98 @@
+package org.example.models;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "generation_job", indexes = {
+        @Index(name = "generation_job_status_idx", columnList = "status, id"),
+        @Index(name = "generation_job_folder_name_idx", columnList = "folder_name")})
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GenerationJob {
+
+    public static final String PRESET_PHOTO = "photo";
+    public static final String PRESET_MONOCHROME = "monochrome";
+    public static final String PRESET_CUSTOM = "custom";
+
+    public static final String TIER_DRAFT = "draft";
+    public static final String TIER_FULL = "full";
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @NotNull
+    @Column(name = "telegram_user_id")
+    private Long telegramUserId;
+
+    @NotNull
+    @Size(max = 120)
+    @Column(name = "file_id")
+    private String fileId;
+
+    @NotNull
+    @Size(max = 20)
+    @Column(name = "preset")
+    private String preset;
+
+    @NotNull
+    @Size(max = 20)
+    @Column(name = "sheet_format")
+    private String sheetFormat;
+
+    @Min(0)
+    @Max(255)
+    @Column(name = "brightness_level")
+    private Integer brightnessLevel;
+
+    @Min(0)
+    @Column(name = "small_details_remover")
+    private Integer smallDetailsRemover;
+
+    @Size(max = 10)
+    @Column(name = "tier", columnDefinition = "VARCHAR(10) DEFAULT 'full'")
+    private String tier = TIER_FULL;
+
+    @NotNull
+    @Size(max = 120)
+    @Column(name = "folder_name")
+    private String folderName;
+
+    @NotNull
+    @Size(max = 20)
+    @Column(name = "status")
+    private String status;
+
+    @Size(max = 120)
+    @Column(name = "owner")
+    private String owner;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "lease_until")
+    private Date leaseUntil;
+
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_time")
+    private Date createdTime;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_time")
+    private Date updatedTime;
+}
@@ -0,0 +1,26 @@
+package org.example.models;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "processed_update")
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ProcessedUpdate {
+
+    @Id
+    @Column(name = "update_id")
+    private Long updateId;
+
+    @NotNull
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "received_time")
+    private Date receivedTime;
+}
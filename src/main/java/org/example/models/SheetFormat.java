@@ -0,0 +1,46 @@
+package org.example.models;
+
+import lombok.Getter;
+
+@Getter
+public enum SheetFormat {
+    A0(841, 1189),
+    A1(594, 841),
+    A2(420, 594),
+    A3(297, 420),
+    A4(210, 297);
+
+    private static final double MM_PER_INCH = 25.4;
+
+    private final int widthMm;
+    private final int heightMm;
+
+    SheetFormat(int widthMm, int heightMm) {
+        this.widthMm = widthMm;
+        this.heightMm = heightMm;
+    }
+
+    public int getWidthPx(int dpi) {
+        return (int) Math.round(widthMm / MM_PER_INCH * dpi);
+    }
+
+    public int getHeightPx(int dpi) {
+        return (int) Math.round(heightMm / MM_PER_INCH * dpi);
+    }
+
+    /** Площадь листа относительно A4. */
+    public int getA4Multiplier() {
+        return 1 << (A4.ordinal() - ordinal());
+    }
+
+    public static SheetFormat of(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
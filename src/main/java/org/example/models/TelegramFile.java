@@ -0,0 +1,47 @@
+package org.example.models;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "telegram_file",
+        uniqueConstraints = @UniqueConstraint(name = "telegram_file_content_hash_media_type_key",
+                columnNames = {"content_hash", "media_type"}))
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TelegramFile {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @NotNull
+    @Size(min = 64, max = 64)
+    @Column(name = "content_hash", columnDefinition = "CHAR(64)")
+    private String contentHash;
+
+    @NotNull
+    @Size(max = 20)
+    @Column(name = "media_type")
+    private String mediaType;
+
+    @NotNull
+    @Size(max = 200)
+    @Column(name = "file_id")
+    private String fileId;
+
+    @Min(0)
+    @Column(name = "file_size")
+    private Long fileSize;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_time")
+    private Date createdTime;
+}
@@ -9,19 +9,25 @@ import lombok.NoArgsConstructor;
 import java.util.Date;
 
 @Entity
-@Table(name = "telegram_user")
+@Table(name = "telegram_user",
+        uniqueConstraints = @UniqueConstraint(name = "telegram_user_telegram_user_id_key", columnNames = "telegram_user_id"))
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class TelegramUser {
 
+    /** Качество генерации: черновик под нагрузкой и полная версия, когда очередь освободится. */
+    public static final String QUALITY_AUTO = "auto";
+    public static final String QUALITY_DRAFT = "draft";
+    public static final String QUALITY_FULL = "full";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
     private Long id;
 
     @NotNull
-    @Column(name = "telegram_user_id")
+    @Column(name = "telegram_user_id", unique = true)
     private Long telegramUserId;
 
     @Column(name = "telegram_user_name")
@@ -56,4 +62,8 @@ public class TelegramUser {
     @Size(max = 120)
     @Column(name = "file_id")
     private String fileId;
+
+    @Size(max = 10)
+    @Column(name = "render_quality", columnDefinition = "VARCHAR(10) DEFAULT 'auto'")
+    private String renderQuality = QUALITY_AUTO;
 }
\ No newline at end of file
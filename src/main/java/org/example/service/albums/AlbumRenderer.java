@@ -0,0 +1,217 @@
+package org.example.service.albums;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.SheetFormat;
+import org.example.service.images.TiledImageOps;
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.GrayRaster;
+import org.example.service.pdf.PdfSheetWriter;
+import org.example.service.preview.PreviewRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Многостраничный result.pdf из альбома за один проход: один PDDocument на все страницы
+ * и растры из общего RasterPool. Изображения декодируются параллельно, но не больше чем на decodeAhead
+ * страниц вперед, чтобы в памяти не лежал весь альбом сразу; страница освобождается сразу после кодирования.
+ * Страницы строятся по PreviewRenderer.Style, а не генераторами, и альбом не пишется в журнал задач,
+ * поэтому режим выключен, пока не задан album.enabled=true.
+ */
+@Service
+public class AlbumRenderer {
+
+    /** Загружает изображение страницы. */
+    public interface PageLoader {
+        BufferedImage load() throws IOException;
+    }
+
+    /** Вызывается после каждой готовой страницы. */
+    public interface Progress {
+        void page(int done, int total);
+    }
+
+    private final TiledImageOps imageOps;
+
+    private final PdfSheetWriter pdfWriter;
+
+    private final int fullDpi;
+
+    private final int decodeAhead;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ExecutorService decodePool;
+
+    private final AtomicLong albums = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+
+    public AlbumRenderer(TiledImageOps imageOps, PdfSheetWriter pdfWriter,
+                         @Value("${image.decode.dpi:300}") int fullDpi,
+                         @Value("${album.threads:1}") int threads,
+                         @Value("${album.max-queued:4}") int maxQueued,
+                         @Value("${album.decode-threads:4}") int decodeThreads,
+                         @Value("${album.decode-ahead:3}") int decodeAhead) {
+        this.imageOps = imageOps;
+        this.pdfWriter = pdfWriter;
+        this.fullDpi = fullDpi;
+        this.decodeAhead = Math.max(1, decodeAhead);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueued)), r -> {
+            Thread thread = new Thread(r, "album-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.decodePool = Executors.newFixedThreadPool(decodeThreads, r -> {
+            Thread thread = new Thread(r, "album-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ставит альбом в очередь.
+     *
+     * @param dpi плотность, с которой декодируются изображения, для пересчета minArea
+     * @return результат или null, если очередь заполнена
+     */
+    public CompletableFuture<Path> submit(List<PageLoader> loaders, String sheetFormat, PreviewRenderer.Style style,
+                                          int dpi, Path target, Progress progress) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    render(loaders, sheetFormat, style, dpi, target, progress);
+                    albums.incrementAndGet();
+                    return target;
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    renderNanos.addAndGet(System.nanoTime() - start);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private void render(List<PageLoader> loaders, String sheetFormat, PreviewRenderer.Style style, int dpi,
+                        Path target, Progress progress) throws IOException {
+        int total = loaders.size();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<BufferedImage>[] images = new CompletableFuture[total];
+        for (int i = 0; i < Math.min(decodeAhead, total); i++) {
+            images[i] = decode(loaders.get(i));
+        }
+        int minArea = style.minArea() > 0
+                ? Math.max(1, (int) Math.round(style.minArea() * ((double) dpi / fullDpi) * ((double) dpi / fullDpi)))
+                : 0;
+        try {
+            pdfWriter.writeBinary(target, SheetFormat.of(sheetFormat), total, new PdfSheetWriter.BinaryPageSource() {
+                @Override
+                public BitMask render(int page) throws IOException {
+                    BufferedImage image = await(images[page]);
+                    images[page] = null;
+                    if (page + decodeAhead < total) {
+                        images[page + decodeAhead] = decode(loaders.get(page + decodeAhead));
+                    }
+                    GrayRaster gray = imageOps.toGray(image);
+                    BitMask mask;
+                    try {
+                        mask = style.dither() ? imageOps.orderedDither(gray) : imageOps.threshold(gray, style.level());
+                    } finally {
+                        imageOps.release(gray);
+                    }
+                    if (minArea > 0) {
+                        imageOps.removeSmallDetails(mask, minArea);
+                    }
+                    return mask;
+                }
+
+                @Override
+                public void release(int page, BitMask mask) {
+                    imageOps.release(mask);
+                    pages.incrementAndGet();
+                    progress.page(page + 1, total);
+                }
+            });
+        } finally {
+            for (CompletableFuture<BufferedImage> image : images) {
+                if (image != null) {
+                    image.cancel(false);
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<BufferedImage> decode(PageLoader loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                BufferedImage image = loader.load();
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                return image;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, decodePool);
+    }
+
+    private static BufferedImage await(CompletableFuture<BufferedImage> image) throws IOException {
+        try {
+            return image.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getAlbums() {
+        return albums.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRenderNanos() {
+        return renderNanos.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        decodePool.shutdown();
+    }
+}
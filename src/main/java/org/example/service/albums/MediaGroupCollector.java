@@ -0,0 +1,181 @@
+package org.example.service.albums;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сборка альбомов (media_group_id). Telegram присылает каждое фото альбома отдельным апдейтом,
+ * поэтому фото копятся, пока в течение window не перестанут приходить новые, после чего альбом
+ * считается полным и запоминается как последний альбом пользователя.
+ */
+@Component
+public class MediaGroupCollector {
+
+    public record Album(String mediaGroupId, List<String> fileIds) {
+
+        public boolean contains(String fileId) {
+            return fileIds.contains(fileId);
+        }
+    }
+
+    /** Вызывается, когда альбом собран. */
+    public interface Handler {
+        void completed(Long telegramUserId, Long chatId, Album album);
+    }
+
+    private static final class Pending {
+        final String mediaGroupId;
+        final Long chatId;
+        final List<String> fileIds = new ArrayList<>();
+        ScheduledFuture<?> flush;
+
+        Pending(String mediaGroupId, Long chatId) {
+            this.mediaGroupId = mediaGroupId;
+            this.chatId = chatId;
+        }
+    }
+
+    private final long windowMillis;
+
+    private final int maxPages;
+
+    private final Map<Long, Pending> collecting = new HashMap<>();
+
+    private final LinkedHashMap<Long, Album> albums;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "media-group-collector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Handler handler;
+
+    private final AtomicLong collected = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+
+    public MediaGroupCollector(@Value("${album.window-ms:1500}") long windowMillis,
+                               @Value("${album.max-pages:10}") int maxPages,
+                               @Value("${album.max-users:10000}") int maxUsers) {
+        this.windowMillis = windowMillis;
+        this.maxPages = maxPages;
+        this.albums = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Album> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    /** Добавляет фото альбома, альбом будет собран через window после последнего фото. */
+    public void offer(Long telegramUserId, Long chatId, String mediaGroupId, String fileId) {
+        Pending previous = null;
+        Album sealed = null;
+        synchronized (this) {
+            Pending pending = collecting.get(telegramUserId);
+            if (pending != null && !pending.mediaGroupId.equals(mediaGroupId)) {
+                pending.flush.cancel(false);
+                previous = pending;
+                sealed = seal(telegramUserId, pending);
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new Pending(mediaGroupId, chatId);
+                collecting.put(telegramUserId, pending);
+                albums.remove(telegramUserId);
+            } else {
+                pending.flush.cancel(false);
+            }
+            if (pending.fileIds.size() < maxPages) {
+                pending.fileIds.add(fileId);
+            } else {
+                truncated.incrementAndGet();
+            }
+            Pending current = pending;
+            pending.flush = executor.schedule(() -> flush(telegramUserId, current), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        if (sealed != null) {
+            notifyHandler(telegramUserId, previous.chatId, sealed);
+        }
+    }
+
+    private void flush(Long telegramUserId, Pending pending) {
+        Album album;
+        synchronized (this) {
+            if (collecting.get(telegramUserId) != pending) {
+                return;
+            }
+            album = seal(telegramUserId, pending);
+        }
+        notifyHandler(telegramUserId, pending.chatId, album);
+    }
+
+    /** Вызывается под блокировкой: убирает альбом из сборки и запоминает его как последний. */
+    private Album seal(Long telegramUserId, Pending pending) {
+        Album album = new Album(pending.mediaGroupId, List.copyOf(pending.fileIds));
+        collecting.remove(telegramUserId, pending);
+        albums.put(telegramUserId, album);
+        collected.incrementAndGet();
+        pages.addAndGet(album.fileIds().size());
+        return album;
+    }
+
+    private void notifyHandler(Long telegramUserId, Long chatId, Album album) {
+        Handler current = handler;
+        if (current != null) {
+            try {
+                current.completed(telegramUserId, chatId, album);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Последний собранный альбом пользователя или null. */
+    public synchronized Album album(Long telegramUserId) {
+        return albums.get(telegramUserId);
+    }
+
+    /** Пользователь прислал одиночное изображение, альбом больше не актуален. */
+    public synchronized void forget(Long telegramUserId) {
+        albums.remove(telegramUserId);
+    }
+
+    public synchronized int getCollecting() {
+        return collecting.size();
+    }
+
+    public long getCollected() {
+        return collected.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getTruncated() {
+        return truncated.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
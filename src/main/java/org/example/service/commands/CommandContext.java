@@ -0,0 +1,26 @@
+package org.example.service.commands;
+
+import org.example.models.TelegramUser;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Locale;
+
+/**
+ * Данные апдейта для обработчика команды. Locale строится один раз на апдейт.
+ *
+ * @param argument значение после '=' для настроек key=value, иначе null
+ */
+public record CommandContext(Update update, TelegramUser user, Locale locale, String argument) {
+
+    public CommandContext withArgument(String argument) {
+        return new CommandContext(update, user, locale, argument);
+    }
+
+    /** Чат, из которого пришел апдейт. */
+    public Long chatId() {
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return update.hasMessage() ? update.getMessage().getChatId() : user.getTelegramUserId();
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.service.commands;
+
+import org.example.service.metrics.LatencyStats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Таблица обработчиков текстовых команд (/start), callback-данных кнопок и настроек вида key=value.
+ * Обработчики регистрируются один раз при старте, разбор апдейта - один поиск в HashMap.
+ * Для каждого обработчика копится число вызовов и время выполнения.
+ */
+public class CommandRouter {
+
+    public interface Handler {
+        void handle(CommandContext context);
+    }
+
+    public interface IntHandler {
+        void handle(CommandContext context, int value);
+    }
+
+    private record Route(String name, Handler handler, LatencyStats stats) {
+    }
+
+    private final Map<String, Route> commands = new HashMap<>();
+
+    private final Map<String, Route> callbacks = new HashMap<>();
+
+    private final Map<String, Route> settings = new HashMap<>();
+
+    private final Map<String, LatencyStats> stats = new LinkedHashMap<>();
+
+    private final LongAdder unmatched = new LongAdder();
+
+    public CommandRouter command(String text, Handler handler) {
+        commands.put(text, route("command " + text, handler));
+        return this;
+    }
+
+    public CommandRouter callback(String data, Handler handler) {
+        callbacks.put(data, route("callback " + data, handler));
+        return this;
+    }
+
+    /** Настройка key=value, значение передается в CommandContext.argument. */
+    public CommandRouter setting(String key, Handler handler) {
+        settings.put(key, route("setting " + key, handler));
+        return this;
+    }
+
+    /** Целочисленная настройка key=value, если значение не число, вызывается onInvalid. */
+    public CommandRouter intSetting(String key, IntHandler handler, Handler onInvalid) {
+        return setting(key, context -> {
+            int value;
+            try {
+                value = Integer.parseInt(context.argument());
+            } catch (NumberFormatException e) {
+                onInvalid.handle(context);
+                return;
+            }
+            handler.handle(context, value);
+        });
+    }
+
+    private Route route(String name, Handler handler) {
+        LatencyStats routeStats = stats.computeIfAbsent(name, LatencyStats::new);
+        return new Route(name, handler, routeStats);
+    }
+
+    /** @return false, если обработчик не найден */
+    public boolean routeText(String text, CommandContext context) {
+        Route route = commands.get(text);
+        if (route != null) {
+            run(route, context);
+            return true;
+        }
+        int index = text.indexOf('=');
+        if (index > 0) {
+            route = settings.get(text.substring(0, index));
+            if (route != null) {
+                run(route, context.withArgument(text.substring(index + 1)));
+                return true;
+            }
+        }
+        unmatched.increment();
+        return false;
+    }
+
+    public boolean routeCallback(String data, CommandContext context) {
+        Route route = data != null ? callbacks.get(data) : null;
+        if (route == null) {
+            unmatched.increment();
+            return false;
+        }
+        run(route, context);
+        return true;
+    }
+
+    private void run(Route route, CommandContext context) {
+        long start = System.nanoTime();
+        try {
+            route.handler().handle(context);
+        } finally {
+            route.stats().recordSince(start);
+        }
+    }
+
+    /** Статистика по обработчикам, ключ - тип и имя команды, например "command /start". */
+    public Map<String, LatencyStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    public long getUnmatched() {
+        return unmatched.sum();
+    }
+}
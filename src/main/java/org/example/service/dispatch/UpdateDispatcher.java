@@ -0,0 +1,142 @@
+package org.example.service.dispatch;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Раздает входящие апдейты по виртуальным потокам.
+ * Апдейты одного ключа (telegramUserId) выполняются строго последовательно,
+ * общее число одновременно работающих обработчиков ограничено maxConcurrency.
+ * Если в очереди больше maxPending апдейтов, вызывающий поток (поток long polling) блокируется.
+ */
+@Service
+public class UpdateDispatcher {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    private final Semaphore workers;
+
+    private final Semaphore backlog;
+
+    private final int maxConcurrency;
+
+    private final int maxPending;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxObservedPending = new AtomicInteger();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+
+    public UpdateDispatcher(@Value("${dispatcher.max-concurrency:64}") int maxConcurrency,
+                            @Value("${dispatcher.max-pending:1024}") int maxPending) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxPending = maxPending;
+        this.workers = new Semaphore(maxConcurrency);
+        this.backlog = new Semaphore(maxPending);
+    }
+
+    public void dispatch(Long key, Runnable task) {
+        if (!backlog.tryAcquire()) {
+            long start = System.nanoTime();
+            throttled.incrementAndGet();
+            backlog.acquireUninterruptibly();
+            throttledNanos.addAndGet(System.nanoTime() - start);
+        }
+        dispatched.incrementAndGet();
+        maxObservedPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+
+        CompletableFuture<Void> next = tails.compute(key, (k, tail) ->
+                (tail != null ? tail : CompletableFuture.<Void>completedFuture(null))
+                        .handleAsync((r, e) -> {
+                            run(task);
+                            return null;
+                        }, executor));
+        next.whenComplete((r, e) -> tails.remove(key, next));
+    }
+
+    private void run(Runnable task) {
+        workers.acquireUninterruptibly();
+        active.incrementAndGet();
+        try {
+            task.run();
+            completed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+        } finally {
+            active.decrementAndGet();
+            workers.release();
+            pending.decrementAndGet();
+            backlog.release();
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getActiveKeys() {
+        return tails.size();
+    }
+
+    public int getMaxObservedPending() {
+        return maxObservedPending.get();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /** Сколько раз поток приема апдейтов упирался в maxPending. */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getThrottledNanos() {
+        return throttledNanos.get();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+}
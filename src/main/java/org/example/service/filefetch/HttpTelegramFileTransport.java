@@ -0,0 +1,75 @@
+package org.example.service.filefetch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.TelegramConfig;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Транспорт поверх HTTP Bot API. Адрес берется из bot.api-url, поэтому его можно направить на локальный сервер.
+ */
+@Component
+public class HttpTelegramFileTransport implements TelegramFileTransport {
+
+    private final TelegramConfig config;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    public HttpTelegramFileTransport(TelegramConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public RemoteFile resolve(String fileId) throws IOException {
+        URI uri = URI.create(config.getApiUrl() + "/bot" + config.getToken() + "/getFile?file_id="
+                + URLEncoder.encode(fileId, StandardCharsets.UTF_8));
+        HttpResponse<InputStream> response = send(uri);
+        try (InputStream body = response.body()) {
+            JsonNode root = objectMapper.readTree(body);
+            if (!root.path("ok").asBoolean(false)) {
+                throw new IOException("getFile failed for " + fileId + ": " + root.path("description").asText());
+            }
+            JsonNode result = root.path("result");
+            return new RemoteFile(result.path("file_id").asText(fileId),
+                    result.path("file_unique_id").asText(null),
+                    result.path("file_path").asText(null),
+                    result.hasNonNull("file_size") ? result.get("file_size").asLong() : null);
+        }
+    }
+
+    @Override
+    public InputStream open(RemoteFile file) throws IOException {
+        URI uri = URI.create(config.getApiUrl() + "/file/bot" + config.getToken() + "/" + file.filePath());
+        HttpResponse<InputStream> response = send(uri);
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("Download of " + file.fileId() + " failed with HTTP " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private HttpResponse<InputStream> send(URI uri) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).GET().build();
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while requesting Bot API", e);
+        }
+    }
+}
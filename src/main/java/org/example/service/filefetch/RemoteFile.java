@@ -0,0 +1,4 @@
+package org.example.service.filefetch;
+
+public record RemoteFile(String fileId, String fileUniqueId, String filePath, Long fileSize) {
+}
@@ -0,0 +1,283 @@
+package org.example.service.filefetch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Скачивает файлы Telegram один раз в локальный кэш на диске.
+ * Файлы хранятся под file_unique_id, поэтому повторные загрузки того же содержимого тоже попадают в кэш.
+ * При превышении maxBytes удаляются давно не использованные файлы, кроме тех, что сейчас читаются через read.
+ */
+@Service
+public class TelegramFileFetcher {
+
+    /** Читает скачанный файл. */
+    public interface FileReader<T> {
+        T read(Path path) throws IOException;
+    }
+
+    private final TelegramFileTransport transport;
+
+    private final Path cacheDir;
+
+    private final long maxBytes;
+
+    // fileId -> file_unique_id, последние maxIds; потеря записи стоит лишнего getFile
+    private final Map<String, String> uniqueIds;
+
+    // file_unique_id -> размер файла, в порядке последнего доступа
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    // file_unique_id -> число читателей, такие файлы не вытесняются
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong downloadNanos = new AtomicLong();
+
+    public TelegramFileFetcher(TelegramFileTransport transport,
+                               @Value("${files.cache.dir:${java.io.tmpdir}/stickpick-files}") String cacheDir,
+                               @Value("${files.cache.max-bytes:1073741824}") long maxBytes,
+                               @Value("${files.ids.max-entries:100000}") int maxIds) throws IOException {
+        this.transport = transport;
+        this.cacheDir = Paths.get(cacheDir);
+        this.maxBytes = maxBytes;
+        this.uniqueIds = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxIds;
+            }
+        });
+        Files.createDirectories(this.cacheDir);
+        loadExisting();
+    }
+
+    /**
+     * Скачанный файл. Путь годится для передачи в другой процесс, но файл может быть вытеснен в любой момент,
+     * поэтому читать его в этом процессе нужно через read.
+     */
+    public Path fetch(String fileId) throws IOException {
+        return fetch(fileId, false);
+    }
+
+    /** Скачивает файл и читает его; пока reader работает, файл не вытесняется из кэша. */
+    public <T> T read(String fileId, FileReader<T> reader) throws IOException {
+        Path path = fetch(fileId, true);
+        try {
+            return reader.read(path);
+        } finally {
+            unpin(path.getFileName().toString());
+        }
+    }
+
+    private Path fetch(String fileId, boolean pin) throws IOException {
+        String uniqueId = uniqueIds.get(fileId);
+        if (uniqueId != null) {
+            Path cached = lookup(uniqueId, pin);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+        RemoteFile remote = transport.resolve(fileId);
+        uniqueId = remote.fileUniqueId() != null ? remote.fileUniqueId() : fileId;
+        uniqueIds.put(fileId, uniqueId);
+        Path cached = lookup(uniqueId, pin);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        return download(uniqueId, remote, pin);
+    }
+
+    public boolean isImage(String fileId) throws IOException {
+        return read(fileId, path -> {
+            try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+                return input != null && ImageIO.getImageReaders(input).hasNext();
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    /** Запоминает file_unique_id из апдейта, чтобы ключ результата и кэш на диске работали еще до скачивания. */
+    public void remember(String fileId, String fileUniqueId) {
+        if (fileId != null && fileUniqueId != null) {
+            uniqueIds.put(fileId, fileUniqueId);
+        }
+    }
+
+    /** file_unique_id для скачанного или полученного в апдейте файла, null если он неизвестен. */
+    public String getUniqueId(String fileId) {
+        return uniqueIds.get(fileId);
+    }
+
+    private Path download(String uniqueId, RemoteFile remote, boolean pin) throws IOException {
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> running = downloads.putIfAbsent(uniqueId, mine);
+        if (running != null) {
+            Path path = await(running);
+            if (!pin) {
+                return path;
+            }
+            Path pinned = lookup(uniqueId, true);
+            // файл успели вытеснить до того, как его закрепили
+            return pinned != null ? pinned : download(uniqueId, remote, true);
+        }
+        try {
+            Path target = cacheDir.resolve(uniqueId);
+            Path temp = Files.createTempFile(cacheDir, uniqueId, ".part");
+            long start = System.nanoTime();
+            long size;
+            try (InputStream in = transport.open(remote)) {
+                size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            downloadNanos.addAndGet(System.nanoTime() - start);
+            bytesDownloaded.addAndGet(size);
+            register(uniqueId, size, pin);
+            mine.complete(target);
+            return target;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(uniqueId, mine);
+        }
+    }
+
+    private Path await(CompletableFuture<Path> download) throws IOException {
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for download", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private synchronized Path lookup(String uniqueId, boolean pin) {
+        if (files.get(uniqueId) == null) {
+            return null;
+        }
+        Path path = cacheDir.resolve(uniqueId);
+        if (Files.exists(path)) {
+            if (pin) {
+                pins.merge(uniqueId, 1, Integer::sum);
+            }
+            return path;
+        }
+        totalBytes -= files.remove(uniqueId);
+        return null;
+    }
+
+    private synchronized void unpin(String uniqueId) {
+        pins.computeIfPresent(uniqueId, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private synchronized void register(String uniqueId, long size, boolean pin) {
+        Long previous = files.put(uniqueId, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        if (pin) {
+            pins.merge(uniqueId, 1, Integer::sum);
+        }
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(uniqueId) || pins.containsKey(eldest.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(cacheDir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void loadExisting() throws IOException {
+        List<Path> existing;
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            existing = stream.filter(Files::isRegularFile).toList();
+        }
+        existing.stream()
+                .filter(p -> p.getFileName().toString().endsWith(".part"))
+                .forEach(p -> p.toFile().delete());
+        existing.stream()
+                .filter(p -> !p.getFileName().toString().endsWith(".part"))
+                .sorted(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                .forEach(p -> {
+                    try {
+                        register(p.getFileName().toString(), Files.size(p), false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    public synchronized long getCachedBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getCachedFiles() {
+        return files.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.get();
+    }
+
+    public long getDownloadNanos() {
+        return downloadNanos.get();
+    }
+}
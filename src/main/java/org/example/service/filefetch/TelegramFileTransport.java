@@ -0,0 +1,14 @@
+package org.example.service.filefetch;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Доступ к файлам Bot API. Вынесен в интерфейс, чтобы в тестах api.telegram.org можно было заменить локальной заглушкой.
+ */
+public interface TelegramFileTransport {
+
+    RemoteFile resolve(String fileId) throws IOException;
+
+    InputStream open(RemoteFile file) throws IOException;
+}
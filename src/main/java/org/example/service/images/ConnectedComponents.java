@@ -0,0 +1,230 @@
+package org.example.service.images;
+
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.RasterPool;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Поиск 8-связных компонент черных точек для удаления мелких деталей (smallDetailsRemover).
+ * Строки маски разбиваются на серии подряд идущих черных точек, серии соседних строк объединяются
+ * в системе непересекающихся множеств, площадь копится в корне при объединении.
+ * Полосы TileExecutor размечаются параллельно, затем склеиваются по границам.
+ * Стоимость почти линейна по числу точек и не зависит от порога площади.
+ */
+@Component
+public class ConnectedComponents {
+
+    private final TileExecutor tileExecutor;
+
+    private final RasterPool pool;
+
+    public ConnectedComponents(TileExecutor tileExecutor, RasterPool pool) {
+        this.tileExecutor = tileExecutor;
+        this.pool = pool;
+    }
+
+    /**
+     * Удаляет компоненты площадью меньше minArea.
+     *
+     * @return число удаленных компонент
+     */
+    public int removeSmall(BitMask mask, int minArea) {
+        int h = mask.getHeight();
+        if (minArea <= 1 || h == 0) {
+            return 0;
+        }
+        int[] rowOffsets = pool.ints(h + 1);
+        int[] starts = null;
+        int[] ends = null;
+        int[] parent = null;
+        int[] area = null;
+        try {
+            tileExecutor.forEachBand(h, 0, band -> {
+                for (int y = band.from(); y < band.to(); y++) {
+                    rowOffsets[y + 1] = scanRow(mask, y, null, null, 0);
+                }
+            });
+            rowOffsets[0] = 0;
+            for (int y = 0; y < h; y++) {
+                rowOffsets[y + 1] += rowOffsets[y];
+            }
+            int runs = rowOffsets[h];
+            if (runs == 0) {
+                return 0;
+            }
+            starts = pool.ints(runs);
+            ends = pool.ints(runs);
+            parent = pool.ints(runs);
+            area = pool.ints(runs);
+            Labels labels = new Labels(rowOffsets, starts, ends, parent, area);
+
+            Queue<Integer> bandStarts = new ConcurrentLinkedQueue<>();
+            tileExecutor.forEachBand(h, 0, band -> {
+                bandStarts.add(band.from());
+                for (int y = band.from(); y < band.to(); y++) {
+                    int first = rowOffsets[y];
+                    scanRow(mask, y, labels.starts, labels.ends, first);
+                    for (int i = first; i < rowOffsets[y + 1]; i++) {
+                        labels.parent[i] = i;
+                        labels.area[i] = labels.ends[i] - labels.starts[i];
+                    }
+                    if (y > band.from()) {
+                        labels.linkRows(y - 1, y);
+                    }
+                }
+            });
+            for (int from : bandStarts) {
+                if (from > 0) {
+                    labels.linkRows(from - 1, from);
+                }
+            }
+
+            int removed = 0;
+            for (int i = 0; i < runs; i++) {
+                if (labels.parent[i] == i && labels.area[i] < minArea) {
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                tileExecutor.forEachBand(h, 0, band -> {
+                    for (int y = band.from(); y < band.to(); y++) {
+                        for (int i = rowOffsets[y]; i < rowOffsets[y + 1]; i++) {
+                            if (labels.area[labels.root(i)] < minArea) {
+                                clearRun(mask, y, labels.starts[i], labels.ends[i]);
+                            }
+                        }
+                    }
+                });
+            }
+            return removed;
+        } finally {
+            pool.release(rowOffsets);
+            if (starts != null) {
+                pool.release(starts);
+                pool.release(ends);
+                pool.release(parent);
+                pool.release(area);
+            }
+        }
+    }
+
+    /**
+     * Находит серии черных точек строки y. Если starts == null, только считает их.
+     *
+     * @return число серий
+     */
+    static int scanRow(BitMask mask, int y, int[] starts, int[] ends, int at) {
+        long[] words = mask.getWords();
+        int width = mask.getWidth();
+        int wordsPerRow = mask.getWordsPerRow();
+        int offset = y * wordsPerRow;
+        int count = 0;
+        int runStart = -1;
+        for (int wx = 0; wx < wordsPerRow; wx++) {
+            long word = words[offset + wx];
+            int base = wx << 6;
+            int pos = 0;
+            while (pos < 64) {
+                if (runStart < 0) {
+                    long rest = word << pos;
+                    if (rest == 0) {
+                        break;
+                    }
+                    pos += Long.numberOfLeadingZeros(rest);
+                    runStart = base + pos;
+                } else {
+                    long rest = ~word << pos;
+                    if (rest == 0) {
+                        break;
+                    }
+                    pos += Long.numberOfLeadingZeros(rest);
+                    count += emit(runStart, base + pos, width, starts, ends, at + count);
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0) {
+            count += emit(runStart, width, width, starts, ends, at + count);
+        }
+        return count;
+    }
+
+    private static int emit(int start, int end, int width, int[] starts, int[] ends, int index) {
+        if (start >= width) {
+            return 0;
+        }
+        if (starts != null) {
+            starts[index] = start;
+            ends[index] = Math.min(end, width);
+        }
+        return 1;
+    }
+
+    private static void clearRun(BitMask mask, int y, int start, int end) {
+        long[] words = mask.getWords();
+        int offset = y * mask.getWordsPerRow();
+        int first = start >>> 6;
+        int last = (end - 1) >>> 6;
+        for (int wx = first; wx <= last; wx++) {
+            int from = wx == first ? start & 63 : 0;
+            int to = wx == last ? ((end - 1) & 63) + 1 : 64;
+            long bits = (to == 64 ? -1L : ~(-1L >>> to)) & (-1L >>> from);
+            words[offset + wx] &= ~bits;
+        }
+    }
+
+    private record Labels(int[] rowOffsets, int[] starts, int[] ends, int[] parent, int[] area) {
+
+        void linkRows(int above, int below) {
+            int i = rowOffsets[above];
+            int iEnd = rowOffsets[above + 1];
+            int j = rowOffsets[below];
+            int jEnd = rowOffsets[below + 1];
+            while (i < iEnd && j < jEnd) {
+                // серии касаются, в том числе по диагонали
+                if (starts[i] <= ends[j] && starts[j] <= ends[i]) {
+                    union(i, j);
+                }
+                if (ends[i] < ends[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        int find(int x) {
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        /** Поиск корня без сжатия путей, безопасен при параллельном чтении. */
+        int root(int x) {
+            while (parent[x] != x) {
+                x = parent[x];
+            }
+            return x;
+        }
+
+        void union(int a, int b) {
+            int ra = find(a);
+            int rb = find(b);
+            if (ra == rb) {
+                return;
+            }
+            if (area[ra] < area[rb]) {
+                int t = ra;
+                ra = rb;
+                rb = t;
+            }
+            parent[rb] = ra;
+            area[ra] += area[rb];
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.example.service.images;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш декодированных изображений. Размер считается в байтах пикселей, а не в числе записей.
+ * Значения держатся через SoftReference, так что при нехватке памяти GC может освободить их раньше лимита.
+ * Возвращаемые изображения общие для всех генераторов и должны использоваться только на чтение.
+ */
+@Component
+public class DecodedImageCache {
+
+    public interface Loader {
+        BufferedImage load() throws IOException;
+    }
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long collected;
+
+    public DecodedImageCache(@Value("${cache.images.max-bytes:536870912}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public BufferedImage get(String key, Loader loader) throws IOException {
+        BufferedImage image = lookup(key);
+        if (image != null) {
+            return image;
+        }
+        image = loader.load();
+        if (image != null) {
+            put(key, image);
+        }
+        return image;
+    }
+
+    private synchronized BufferedImage lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        BufferedImage image = entry.image.get();
+        if (image == null) {
+            entries.remove(key);
+            totalBytes -= entry.bytes;
+            collected++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return image;
+    }
+
+    private synchronized void put(String key, BufferedImage image) {
+        long bytes = weigh(image);
+        if (bytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(new SoftReference<>(image), bytes));
+        totalBytes += bytes - (previous != null ? previous.bytes : 0);
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            totalBytes -= eldest.getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes;
+        }
+    }
+
+    public static long weigh(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Сколько записей освободил GC до вытеснения по лимиту. */
+    public synchronized long getCollected() {
+        return collected;
+    }
+
+    private record Entry(SoftReference<BufferedImage> image, long bytes) {
+    }
+}
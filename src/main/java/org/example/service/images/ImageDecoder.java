@@ -0,0 +1,202 @@
+package org.example.service.images;
+
+import org.example.models.SheetFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Декодирует изображение сразу в разрешение, нужное для выбранного формата листа.
+ * Размеры читаются из заголовка до декодирования: слишком большие картинки отклоняются,
+ * а остальные прореживаются через ImageReadParam.setSourceSubsampling так,
+ * чтобы на листе оставалось не меньше dpi точек на дюйм. Черновик (dpi ниже полной плотности)
+ * после прореживания еще и уменьшается до точного размера листа при этом dpi.
+ */
+@Component
+public class ImageDecoder {
+
+    private static final int FULL_DECODE_BYTES_PER_PIXEL = 4;
+
+    private final int dpi;
+
+    private final long maxSourcePixels;
+
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong subsampled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong maxSavedBytes = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    public ImageDecoder(@Value("${image.decode.dpi:300}") int dpi,
+                        @Value("${image.decode.max-source-pixels:200000000}") long maxSourcePixels) {
+        this.dpi = dpi;
+        this.maxSourcePixels = maxSourcePixels;
+    }
+
+    /**
+     * @return изображение или null, если формат не распознан
+     * @throws ImageTooLargeException если в заголовке указано больше max-source-pixels точек
+     */
+    public BufferedImage decode(Path path, String sheetFormat) throws IOException {
+        return decode(path, sheetFormat, dpi);
+    }
+
+    /** Декодирование с другой плотностью листа, например для черновика. */
+    public BufferedImage decode(Path path, String sheetFormat, int dpi) throws IOException {
+        long start = System.nanoTime();
+        try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxSourcePixels) {
+                    rejected.incrementAndGet();
+                    throw new ImageTooLargeException(width, height, maxSourcePixels);
+                }
+                int step = subsampling(width, height, SheetFormat.of(sheetFormat), dpi);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0);
+                    subsampled.incrementAndGet();
+                }
+                BufferedImage image = reader.read(0, param);
+                if (dpi < this.dpi) {
+                    image = fit(image, SheetFormat.of(sheetFormat), dpi);
+                }
+                long saved = Math.max(0, (long) width * height * FULL_DECODE_BYTES_PER_PIXEL - DecodedImageCache.weigh(image));
+                savedBytes.addAndGet(saved);
+                maxSavedBytes.accumulateAndGet(saved, Math::max);
+                decoded.incrementAndGet();
+                return image;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Сколько точек будет в изображении после decode(path, sheetFormat, dpi), читается только заголовок.
+     *
+     * @return -1 если формат не распознан
+     */
+    public long decodedPixels(Path path, String sheetFormat, int dpi) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+            if (input == null) {
+                return -1;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return -1;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                SheetFormat format = SheetFormat.of(sheetFormat);
+                int step = subsampling(reader.getWidth(0), reader.getHeight(0), format, dpi);
+                int width = (reader.getWidth(0) + step - 1) / step;
+                int height = (reader.getHeight(0) + step - 1) / step;
+                double scale = dpi < this.dpi ? fitScale(width, height, format, dpi) : 1.0;
+                return (long) scaled(width, scale) * scaled(height, scale);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage fit(BufferedImage image, SheetFormat format, int dpi) {
+        double scale = fitScale(image.getWidth(), image.getHeight(), format, dpi);
+        if (scale >= 1.0) {
+            return image;
+        }
+        int w = scaled(image.getWidth(), scale);
+        int h = scaled(image.getHeight(), scale);
+        int type = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_BYTE_GRAY
+                : image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage small = new BufferedImage(w, h, type);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return small;
+    }
+
+    // как и subsampling, оставляет изображение не меньше листа по обеим сторонам
+    private static double fitScale(int width, int height, SheetFormat format, int dpi) {
+        if (format == null) {
+            return 1.0;
+        }
+        double scale = Math.max((double) format.getHeightPx(dpi) / Math.max(width, height),
+                (double) format.getWidthPx(dpi) / Math.min(width, height));
+        return Math.min(1.0, scale);
+    }
+
+    private static int scaled(int size, double scale) {
+        return Math.max(1, (int) Math.ceil(size * scale));
+    }
+
+    int subsampling(int width, int height, SheetFormat format, int dpi) {
+        if (format == null) {
+            return 1;
+        }
+        int imageLong = Math.max(width, height);
+        int imageShort = Math.min(width, height);
+        int sheetLong = format.getHeightPx(dpi);
+        int sheetShort = format.getWidthPx(dpi);
+        return Math.max(1, Math.min(imageLong / sheetLong, imageShort / sheetShort));
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    public long getDecoded() {
+        return decoded.get();
+    }
+
+    public long getSubsampled() {
+        return subsampled.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** Суммарная экономия кучи относительно полного декодирования в ARGB. */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /** Наибольшая экономия кучи на одной задаче. */
+    public long getMaxSavedBytes() {
+        return maxSavedBytes.get();
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos.get();
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.service.images;
+
+import lombok.Getter;
+
+import java.io.IOException;
+
+@Getter
+public class ImageTooLargeException extends IOException {
+
+    private final int width;
+    private final int height;
+
+    public ImageTooLargeException(int width, int height, long maxPixels) {
+        super("Image " + width + "x" + height + " exceeds the limit of " + maxPixels + " pixels");
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.service.images;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Делит изображение на горизонтальные полосы и обрабатывает их в ForkJoinPool.
+ * Каждая полоса пишет только свои строки, а читать может еще halo строк сверху и снизу,
+ * поэтому результат совпадает с однопоточным побитно.
+ * В режиме INTER_JOB полосы выполняются в вызывающем потоке, а параллельность достигается
+ * за счет одновременной обработки разных задач.
+ */
+@Component
+public class TileExecutor {
+
+    public enum Mode {
+        PER_JOB,
+        INTER_JOB
+    }
+
+    public record Band(int from, int to, int readFrom, int readTo) {
+    }
+
+    public interface BandTask {
+        void run(Band band);
+    }
+
+    private final Mode mode;
+
+    private final int minBandRows;
+
+    private final ForkJoinPool pool;
+
+    public TileExecutor(@Value("${render.parallel-mode:PER_JOB}") Mode mode,
+                        @Value("${render.parallelism:0}") int parallelism,
+                        @Value("${render.min-band-rows:64}") int minBandRows) {
+        this.mode = mode;
+        this.minBandRows = Math.max(1, minBandRows);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public void forEachBand(int height, int halo, BandTask task) {
+        if (mode == Mode.INTER_JOB || pool.getParallelism() == 1 || height <= minBandRows) {
+            task.run(new Band(0, height, 0, height));
+            return;
+        }
+        int bands = Math.min(pool.getParallelism() * 4, (height + minBandRows - 1) / minBandRows);
+        pool.invoke(new BandAction(task, height, halo, (height + bands - 1) / bands, 0, height));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getParallelism() {
+        return mode == Mode.INTER_JOB ? 1 : pool.getParallelism();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class BandAction extends RecursiveAction {
+
+        private final BandTask task;
+        private final int height;
+        private final int halo;
+        private final int bandRows;
+        private final int from;
+        private final int to;
+
+        private BandAction(BandTask task, int height, int halo, int bandRows, int from, int to) {
+            this.task = task;
+            this.height = height;
+            this.halo = halo;
+            this.bandRows = bandRows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandRows) {
+                task.run(new Band(from, to, Math.max(0, from - halo), Math.min(height, to + halo)));
+                return;
+            }
+            int mid = from + ((to - from) / bandRows / 2) * bandRows;
+            if (mid == from) {
+                mid = from + bandRows;
+            }
+            invokeAll(new BandAction(task, height, halo, bandRows, from, mid),
+                    new BandAction(task, height, halo, bandRows, mid, to));
+        }
+    }
+}
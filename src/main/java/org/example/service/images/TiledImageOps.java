@@ -0,0 +1,117 @@
+package org.example.service.images;
+
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.GrayRaster;
+import org.example.service.images.raster.RasterKernels;
+import org.example.service.images.raster.RasterPool;
+import org.example.service.images.raster.Rasters;
+import org.example.service.metrics.LatencyStats;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Операции пиксельного конвейера генераторов (перевод в оттенки серого, размытие, порог, дизеринг,
+ * удаление мелких деталей), разбитые на полосы через TileExecutor. Внутри работают с GrayRaster и BitMask
+ * из RasterPool; BufferedImage появляется только на входе и на выходе.
+ * Используется упорядоченный дизеринг (матрица Байера): в отличие от диффузии ошибки он не зависит
+ * от соседних полос. Растры, которые вернули методы, нужно отдать обратно через release.
+ */
+@Component
+public class TiledImageOps {
+
+    private final TileExecutor tileExecutor;
+
+    private final RasterPool pool;
+
+    private final ConnectedComponents connectedComponents;
+
+    private final LatencyStats toGrayStats = new LatencyStats("image.to-gray");
+    private final LatencyStats blurStats = new LatencyStats("image.blur");
+    private final LatencyStats thresholdStats = new LatencyStats("image.threshold");
+    private final LatencyStats ditherStats = new LatencyStats("image.dither");
+    private final LatencyStats denoiseStats = new LatencyStats("image.denoise");
+
+    public TiledImageOps(TileExecutor tileExecutor, RasterPool pool, ConnectedComponents connectedComponents) {
+        this.tileExecutor = tileExecutor;
+        this.pool = pool;
+        this.connectedComponents = connectedComponents;
+    }
+
+    public GrayRaster toGray(BufferedImage source) {
+        long start = System.nanoTime();
+        int w = source.getWidth();
+        GrayRaster gray = pool.gray(w, source.getHeight());
+        tileExecutor.forEachBand(source.getHeight(), 0, band -> {
+            int[] row = pool.ints(w);
+            try {
+                Rasters.toGray(source, gray, band.from(), band.to(), row);
+            } finally {
+                pool.release(row);
+            }
+        });
+        toGrayStats.recordSince(start);
+        return gray;
+    }
+
+    public GrayRaster boxBlur(GrayRaster gray, int radius) {
+        long start = System.nanoTime();
+        int w = gray.getWidth();
+        GrayRaster blurred = pool.gray(w, gray.getHeight());
+        tileExecutor.forEachBand(gray.getHeight(), Math.max(0, radius), band -> {
+            int[] scratch = pool.ints((band.readTo() - band.readFrom()) * w);
+            try {
+                RasterKernels.boxBlur(gray, Math.max(0, radius), blurred, band.from(), band.to(),
+                        band.readFrom(), band.readTo(), scratch);
+            } finally {
+                pool.release(scratch);
+            }
+        });
+        blurStats.recordSince(start);
+        return blurred;
+    }
+
+    /** Точки темнее level становятся черными. */
+    public BitMask threshold(GrayRaster gray, int level) {
+        long start = System.nanoTime();
+        BitMask mask = pool.mask(gray.getWidth(), gray.getHeight());
+        tileExecutor.forEachBand(gray.getHeight(), 0,
+                band -> RasterKernels.threshold(gray, level, mask, band.from(), band.to()));
+        thresholdStats.recordSince(start);
+        return mask;
+    }
+
+    public BitMask orderedDither(GrayRaster gray) {
+        long start = System.nanoTime();
+        BitMask mask = pool.mask(gray.getWidth(), gray.getHeight());
+        tileExecutor.forEachBand(gray.getHeight(), 0,
+                band -> RasterKernels.orderedDither(gray, mask, band.from(), band.to()));
+        ditherStats.recordSince(start);
+        return mask;
+    }
+
+    /** Удаляет черные пятна площадью меньше minArea, возвращает число удаленных пятен. */
+    public int removeSmallDetails(BitMask mask, int minArea) {
+        long start = System.nanoTime();
+        int removed = connectedComponents.removeSmall(mask, minArea);
+        denoiseStats.recordSince(start);
+        return removed;
+    }
+
+    public BufferedImage toImage(BitMask mask) {
+        return Rasters.toImage(mask);
+    }
+
+    public List<LatencyStats> getStageStats() {
+        return List.of(toGrayStats, blurStats, thresholdStats, ditherStats, denoiseStats);
+    }
+
+    public void release(GrayRaster raster) {
+        pool.release(raster);
+    }
+
+    public void release(BitMask mask) {
+        pool.release(mask);
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.service.images.raster;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Бинарная маска, упакованная по 64 точки в long. Каждая строка начинается с нового слова,
+ * поэтому разные строки можно заполнять из разных потоков. Установленный бит означает черную точку.
+ * Старший бит слова соответствует левой точке, как в TYPE_BYTE_BINARY.
+ */
+@Getter
+public final class BitMask {
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    public BitMask(int width, int height, long[] words) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = wordsPerRow(width);
+        if (words.length < wordsPerRow * height) {
+            throw new IllegalArgumentException("Buffer of " + words.length + " words is too small for " + width + "x" + height);
+        }
+        this.words = words;
+    }
+
+    public static int wordsPerRow(int width) {
+        return (width + 63) >>> 6;
+    }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (Long.MIN_VALUE >>> (x & 63))) != 0;
+    }
+
+    public void set(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] |= Long.MIN_VALUE >>> (x & 63);
+    }
+
+    public void clear(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] &= ~(Long.MIN_VALUE >>> (x & 63));
+    }
+
+    public void clearRows(int from, int to) {
+        Arrays.fill(words, from * wordsPerRow, to * wordsPerRow, 0L);
+    }
+}
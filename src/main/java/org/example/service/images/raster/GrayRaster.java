@@ -0,0 +1,32 @@
+package org.example.service.images.raster;
+
+import lombok.Getter;
+
+/**
+ * Изображение в оттенках серого: по байту на точку, строки подряд.
+ * Массив может быть длиннее width * height, если взят из RasterPool.
+ */
+@Getter
+public final class GrayRaster {
+
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+    public GrayRaster(int width, int height, byte[] data) {
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Buffer of " + data.length + " bytes is too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    public int get(int x, int y) {
+        return data[y * width + x] & 0xFF;
+    }
+
+    public void set(int x, int y, int value) {
+        data[y * width + x] = (byte) value;
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.service.images.raster;
+
+/**
+ * Ядра пиксельного конвейера над GrayRaster и BitMask. Работают на диапазоне строк [from, to),
+ * чтобы их можно было раздать по полосам TileExecutor, и не выделяют память:
+ * буферы передаются вызывающим кодом.
+ */
+public final class RasterKernels {
+
+    private static final int[][] BAYER_8 = {
+            {0, 32, 8, 40, 2, 34, 10, 42},
+            {48, 16, 56, 24, 50, 18, 58, 26},
+            {12, 44, 4, 36, 14, 46, 6, 38},
+            {60, 28, 52, 20, 62, 30, 54, 22},
+            {3, 35, 11, 43, 1, 33, 9, 41},
+            {51, 19, 59, 27, 49, 17, 57, 25},
+            {15, 47, 7, 39, 13, 45, 5, 37},
+            {63, 31, 55, 23, 61, 29, 53, 21}
+    };
+
+    private RasterKernels() {
+    }
+
+    /** Точки темнее level становятся черными (бит установлен). */
+    public static void threshold(GrayRaster src, int level, BitMask dst, int from, int to) {
+        byte[] gray = src.getData();
+        long[] words = dst.getWords();
+        int width = src.getWidth();
+        int wordsPerRow = dst.getWordsPerRow();
+        for (int y = from; y < to; y++) {
+            int row = y * width;
+            int wordIndex = y * wordsPerRow;
+            for (int wx = 0; wx < wordsPerRow; wx++) {
+                long word = 0;
+                int x0 = wx << 6;
+                int x1 = Math.min(width, x0 + 64);
+                for (int x = x0; x < x1; x++) {
+                    if ((gray[row + x] & 0xFF) < level) {
+                        word |= Long.MIN_VALUE >>> (x - x0);
+                    }
+                }
+                words[wordIndex + wx] = word;
+            }
+        }
+    }
+
+    public static void orderedDither(GrayRaster src, BitMask dst, int from, int to) {
+        byte[] gray = src.getData();
+        long[] words = dst.getWords();
+        int width = src.getWidth();
+        int wordsPerRow = dst.getWordsPerRow();
+        for (int y = from; y < to; y++) {
+            int row = y * width;
+            int wordIndex = y * wordsPerRow;
+            int[] bayer = BAYER_8[y & 7];
+            for (int wx = 0; wx < wordsPerRow; wx++) {
+                long word = 0;
+                int x0 = wx << 6;
+                int x1 = Math.min(width, x0 + 64);
+                for (int x = x0; x < x1; x++) {
+                    if ((gray[row + x] & 0xFF) * 64 <= bayer[x & 7] * 255 + 127) {
+                        word |= Long.MIN_VALUE >>> (x - x0);
+                    }
+                }
+                words[wordIndex + wx] = word;
+            }
+        }
+    }
+
+    /**
+     * Раздельное усреднение по квадрату (2 * radius + 1). Строки [readFrom, readTo) должны покрывать
+     * [from - radius, to + radius] в пределах изображения.
+     *
+     * @param scratch не меньше (readTo - readFrom) * width элементов
+     */
+    public static void boxBlur(GrayRaster src, int radius, GrayRaster dst, int from, int to,
+                               int readFrom, int readTo, int[] scratch) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int w = src.getWidth();
+        int h = src.getHeight();
+        for (int y = readFrom; y < readTo; y++) {
+            int row = y * w;
+            int base = (y - readFrom) * w;
+            int sum = 0;
+            for (int x = 0; x <= Math.min(radius, w - 1); x++) {
+                sum += in[row + x] & 0xFF;
+            }
+            for (int x = 0; x < w; x++) {
+                int left = x - radius;
+                int right = x + radius;
+                scratch[base + x] = sum / (Math.min(right, w - 1) - Math.max(left, 0) + 1);
+                if (right + 1 < w) {
+                    sum += in[row + right + 1] & 0xFF;
+                }
+                if (left >= 0) {
+                    sum -= in[row + left] & 0xFF;
+                }
+            }
+        }
+        for (int y = from; y < to; y++) {
+            int top = Math.max(0, y - radius);
+            int bottom = Math.min(h - 1, y + radius);
+            int count = bottom - top + 1;
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                int sum = 0;
+                for (int yy = top; yy <= bottom; yy++) {
+                    sum += scratch[(yy - readFrom) * w + x];
+                }
+                out[row + x] = (byte) (sum / count);
+            }
+        }
+    }
+}
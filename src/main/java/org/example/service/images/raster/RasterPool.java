@@ -0,0 +1,131 @@
+package org.example.service.images.raster;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Пул массивов для растров, чтобы задачи генерации не выделяли заново буферы на десятки мегабайт.
+ * Массивы раскладываются по корзинам: между соседними степенями двойки 8 размеров,
+ * так что округление добавляет не больше 12.5% (растр A0 не занимает вдвое больше памяти).
+ * Возвращенные массивы не очищаются.
+ */
+@Component
+public class RasterPool {
+
+    private static final int CLASSES_PER_DOUBLING = 8;
+
+    private final long maxPooledBytes;
+
+    private final Map<Integer, ArrayDeque<byte[]>> bytes = new HashMap<>();
+    private final Map<Integer, ArrayDeque<int[]>> ints = new HashMap<>();
+    private final Map<Integer, ArrayDeque<long[]>> longs = new HashMap<>();
+
+    private long pooledBytes;
+
+    private long reused;
+    private long allocated;
+    private long dropped;
+
+    public RasterPool(@Value("${render.pool.max-bytes:268435456}") long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public GrayRaster gray(int width, int height) {
+        return new GrayRaster(width, height, bytes(width * height));
+    }
+
+    public BitMask mask(int width, int height) {
+        return new BitMask(width, height, longs(BitMask.wordsPerRow(width) * height));
+    }
+
+    public void release(GrayRaster raster) {
+        release(raster.getData());
+    }
+
+    public void release(BitMask mask) {
+        release(mask.getWords());
+    }
+
+    public synchronized byte[] bytes(int length) {
+        int capacity = capacity(length);
+        byte[] array = poll(bytes, capacity, capacity);
+        return array != null ? array : allocate(new byte[capacity]);
+    }
+
+    public synchronized int[] ints(int length) {
+        int capacity = capacity(length);
+        int[] array = poll(ints, capacity, (long) capacity * Integer.BYTES);
+        return array != null ? array : allocate(new int[capacity]);
+    }
+
+    public synchronized long[] longs(int length) {
+        int capacity = capacity(length);
+        long[] array = poll(longs, capacity, (long) capacity * Long.BYTES);
+        return array != null ? array : allocate(new long[capacity]);
+    }
+
+    public synchronized void release(byte[] array) {
+        offer(bytes, array, array.length, array.length);
+    }
+
+    public synchronized void release(int[] array) {
+        offer(ints, array, array.length, (long) array.length * Integer.BYTES);
+    }
+
+    public synchronized void release(long[] array) {
+        offer(longs, array, array.length, (long) array.length * Long.BYTES);
+    }
+
+    private <T> T poll(Map<Integer, ArrayDeque<T>> buckets, int capacity, long size) {
+        ArrayDeque<T> bucket = buckets.get(capacity);
+        T array = bucket != null ? bucket.pollFirst() : null;
+        if (array != null) {
+            pooledBytes -= size;
+            reused++;
+        }
+        return array;
+    }
+
+    private <T> T allocate(T array) {
+        allocated++;
+        return array;
+    }
+
+    private <T> void offer(Map<Integer, ArrayDeque<T>> buckets, T array, int length, long size) {
+        if (capacity(length) != length || pooledBytes + size > maxPooledBytes) {
+            dropped++;
+            return;
+        }
+        buckets.computeIfAbsent(length, k -> new ArrayDeque<>()).addFirst(array);
+        pooledBytes += size;
+    }
+
+    static int capacity(int length) {
+        if (length <= 64) {
+            return 64;
+        }
+        long step = Integer.highestOneBit(length - 1) / CLASSES_PER_DOUBLING;
+        long capacity = (length + step - 1) / step * step;
+        return capacity <= Integer.MAX_VALUE ? (int) capacity : length;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getReused() {
+        return reused;
+    }
+
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
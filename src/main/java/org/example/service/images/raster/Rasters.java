@@ -0,0 +1,133 @@
+package org.example.service.images.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Переходники между BufferedImage и растрами конвейера. Для распространенных типов изображений
+ * данные читаются прямо из DataBuffer, без getRGB на каждую точку; результат совпадает с getRGB.
+ */
+public final class Rasters {
+
+    private Rasters() {
+    }
+
+    /**
+     * Переводит строки [from, to) изображения в оттенки серого.
+     *
+     * @param row буфер не меньше ширины изображения, нужен только для нестандартных типов
+     */
+    public static void toGray(BufferedImage src, GrayRaster dst, int from, int to, int[] row) {
+        int w = src.getWidth();
+        byte[] out = dst.getData();
+        Raster raster = src.getRaster();
+        boolean plain = raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0;
+        switch (plain ? src.getType() : BufferedImage.TYPE_CUSTOM) {
+            case BufferedImage.TYPE_BYTE_GRAY -> {
+                // серый TYPE_BYTE_GRAY линейный, getRGB переводит его в sRGB через ColorModel
+                byte[] lut = grayLut(src.getColorModel());
+                byte[] in = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+                for (int y = from; y < to; y++) {
+                    int p = y * stride;
+                    int o = y * w;
+                    for (int x = 0; x < w; x++) {
+                        out[o + x] = lut[in[p + x] & 0xFF];
+                    }
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR -> {
+                byte[] in = ((DataBufferByte) raster.getDataBuffer()).getData();
+                ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+                int stride = model.getScanlineStride();
+                int step = model.getPixelStride();
+                int[] offsets = model.getBandOffsets();
+                int r = offsets[0];
+                int g = offsets[1];
+                int b = offsets[2];
+                for (int y = from; y < to; y++) {
+                    int p = y * stride;
+                    int o = y * w;
+                    for (int x = 0; x < w; x++, p += step) {
+                        out[o + x] = (byte) luminance(in[p + r] & 0xFF, in[p + g] & 0xFF, in[p + b] & 0xFF);
+                    }
+                }
+            }
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+                int[] in = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                for (int y = from; y < to; y++) {
+                    int p = y * stride;
+                    int o = y * w;
+                    for (int x = 0; x < w; x++) {
+                        int argb = in[p + x];
+                        out[o + x] = (byte) luminance((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+                    }
+                }
+            }
+            default -> {
+                for (int y = from; y < to; y++) {
+                    src.getRGB(0, y, w, 1, row, 0, w);
+                    int o = y * w;
+                    for (int x = 0; x < w; x++) {
+                        int argb = row[x];
+                        out[o + x] = (byte) luminance((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] grayLut(ColorModel colorModel) {
+        byte[] lut = new byte[256];
+        byte[] pixel = new byte[1];
+        for (int v = 0; v < 256; v++) {
+            // так же, как BufferedImage.getRGB: через getRGB(Object), getRGB(int) округляет иначе
+            pixel[0] = (byte) v;
+            int argb = colorModel.getRGB(pixel);
+            lut[v] = (byte) luminance((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+        }
+        return lut;
+    }
+
+    public static int luminance(int r, int g, int b) {
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+
+    /** Черно-белое изображение TYPE_BYTE_BINARY (0 - черный, 1 - белый) из маски. */
+    public static BufferedImage toImage(BitMask mask) {
+        int w = mask.getWidth();
+        int h = mask.getHeight();
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] out = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (w + 7) >>> 3;
+        long[] words = mask.getWords();
+        int wordsPerRow = mask.getWordsPerRow();
+        for (int y = 0; y < h; y++) {
+            int wordIndex = y * wordsPerRow;
+            int o = y * stride;
+            for (int i = 0; i < stride; i++) {
+                long word = words[wordIndex + (i >>> 3)];
+                out[o + i] = (byte) ~(word >>> (56 - ((i & 7) << 3)));
+            }
+        }
+        return image;
+    }
+
+    public static GrayRaster toGray(BufferedImage src, RasterPool pool) {
+        GrayRaster gray = pool.gray(src.getWidth(), src.getHeight());
+        int[] row = pool.ints(src.getWidth());
+        try {
+            toGray(src, gray, 0, src.getHeight(), row);
+        } finally {
+            pool.release(row);
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,282 @@
+package org.example.service.jobs;
+
+import jakarta.annotation.PreDestroy;
+import org.example.dao.GenerationJobDao;
+import org.example.models.GenerationJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Журнал задач генерации в таблице generation_job, чтобы принятые задачи переживали перезапуск и падение.
+ * Задача пишется при постановке в GenerationScheduler под арендой этого узла, аренда продлевается,
+ * пока задача выполняется, и снимается, когда результат отправлен (completed) или задача отменена.
+ * Если узел упал, аренда истекает и задачу забирает и повторяет любой узел с jobs.worker.enabled.
+ * При стабильном jobs.node-id задачи своего узла возвращаются в очередь сразу после старта.
+ */
+@Service
+public class JobJournal {
+
+    /** Повторяет задачу из журнала, false если узел сейчас не может ее принять. */
+    public interface Replayer {
+        boolean replay(GenerationJob job);
+    }
+
+    private final GenerationJobDao generationJobDao;
+
+    private final String nodeId;
+
+    private final int leaseSeconds;
+
+    private final int maxAttempts;
+
+    private final long maxRuntimeMillis;
+
+    private final long pollIntervalMillis;
+
+    private final boolean workerEnabled;
+
+    private final int workerBatch;
+
+    private final long retentionMillis;
+
+    // id задачи -> время начала
+    private final Map<Long, Long> inFlight = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "job-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Replayer replayer;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong journalErrors = new AtomicLong();
+
+    public JobJournal(GenerationJobDao generationJobDao,
+                      @Value("${jobs.node-id:}") String nodeId,
+                      @Value("${jobs.lease-seconds:120}") int leaseSeconds,
+                      @Value("${jobs.max-attempts:3}") int maxAttempts,
+                      @Value("${jobs.max-runtime-minutes:30}") long maxRuntimeMinutes,
+                      @Value("${jobs.poll-interval-ms:5000}") long pollIntervalMillis,
+                      @Value("${jobs.worker.enabled:true}") boolean workerEnabled,
+                      @Value("${jobs.worker.batch:4}") int workerBatch,
+                      @Value("${jobs.retention-hours:72}") long retentionHours) {
+        this.generationJobDao = generationJobDao;
+        this.nodeId = nodeId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+        this.leaseSeconds = leaseSeconds;
+        this.maxAttempts = maxAttempts;
+        this.maxRuntimeMillis = TimeUnit.MINUTES.toMillis(maxRuntimeMinutes);
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.workerEnabled = workerEnabled;
+        this.workerBatch = workerBatch;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+    }
+
+    public void setReplayer(Replayer replayer) {
+        this.replayer = replayer;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        quietly(() -> generationJobDao.requeueOwned(nodeId));
+        long renewMillis = TimeUnit.SECONDS.toMillis(leaseSeconds) / 3;
+        executor.scheduleWithFixedDelay(this::renewLeases, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+        if (workerEnabled) {
+            executor.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        executor.scheduleWithFixedDelay(() -> quietly(() -> generationJobDao.deleteFinishedBefore(
+                new Date(System.currentTimeMillis() - retentionMillis))), 1, 1, TimeUnit.HOURS);
+    }
+
+    /** Записывает новую задачу перед постановкой в GenerationScheduler. */
+    public void record(GenerationJob job) {
+        try {
+            job.setId(generationJobDao.insertRunning(job, nodeId, leaseSeconds));
+            job.setStatus(GenerationJob.STATUS_RUNNING);
+            job.setOwner(nodeId);
+            job.setAttempts(1);
+            inFlight.put(job.getId(), System.currentTimeMillis());
+            recorded.incrementAndGet();
+        } catch (RuntimeException e) {
+            // без журнала задача все равно выполнится, но не переживет перезапуск
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    /** Новая задача не поместилась в GenerationScheduler, пользователю отказано. */
+    public void rejected(GenerationJob job) {
+        if (job.getId() != null) {
+            finish(job.getId(), GenerationJob.STATUS_CANCELLED);
+        }
+    }
+
+    /** Задачу, ожидавшую в GenerationScheduler, вытеснила более новая задача пользователя. */
+    public void cancelled(GenerationJob job) {
+        if (job.getId() != null) {
+            finish(job.getId(), GenerationJob.STATUS_CANCELLED);
+        }
+    }
+
+    /**
+     * Забирает аренду задачи из SpoolDirectory у узла, который ее поставил. Узел продлевает аренду,
+     * пока задача лежит в SpoolDirectory; попытка (attempts) сверяется, чтобы устаревшая копия задачи,
+     * которую журнал успел забрать повторно, не выполнилась второй раз.
+     *
+     * @return false если аренда уже истекла и задачу повторяет другой узел
+     */
+    public boolean adopt(GenerationJob job) {
+        if (job.getId() == null || job.getOwner() == null) {
+            return true;
+        }
+        try {
+            if (generationJobDao.transfer(job.getId(), job.getOwner(), nodeId, job.getAttempts(), leaseSeconds) == 0) {
+                return false;
+            }
+            inFlight.put(job.getId(), System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /** Возвращает аренду узлу, который поставил задачу, когда исполнитель не смог ее принять. */
+    public void disown(GenerationJob job) {
+        if (job.getId() == null || job.getOwner() == null) {
+            return;
+        }
+        inFlight.remove(job.getId());
+        quietly(() -> generationJobDao.transfer(job.getId(), nodeId, job.getOwner(), job.getAttempts(), leaseSeconds));
+    }
+
+    /** Результат из папки folderName отправлен пользователю. */
+    public void completed(String folderName) {
+        try {
+            for (Long id : generationJobDao.completeByFolder(folderName)) {
+                inFlight.remove(id);
+                completed.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    public void failed(GenerationJob job) {
+        if (job.getId() != null) {
+            failed.incrementAndGet();
+            finish(job.getId(), GenerationJob.STATUS_FAILED);
+        }
+    }
+
+    private void finish(Long id, String status) {
+        inFlight.remove(id);
+        quietly(() -> generationJobDao.finish(id, status));
+    }
+
+    private void renewLeases() {
+        long now = System.currentTimeMillis();
+        // зависшие задачи перестают продлеваться, аренда истечет и задача будет повторена
+        inFlight.values().removeIf(startedAt -> now - startedAt > maxRuntimeMillis);
+        List<Long> ids = List.copyOf(inFlight.keySet());
+        try {
+            // задачи, которые забрал исполнитель или которые уже завершены, больше не продлеваются
+            Set<Long> renewed = new HashSet<>(generationJobDao.renew(nodeId, ids, leaseSeconds));
+            ids.stream().filter(id -> !renewed.contains(id)).forEach(inFlight::remove);
+        } catch (RuntimeException e) {
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    private void poll() {
+        Replayer current = replayer;
+        if (current == null) {
+            return;
+        }
+        try {
+            generationJobDao.failExhausted(maxAttempts);
+            for (GenerationJob job : generationJobDao.claim(nodeId, leaseSeconds, maxAttempts, workerBatch)) {
+                inFlight.put(job.getId(), System.currentTimeMillis());
+                boolean accepted;
+                try {
+                    accepted = current.replay(job);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    failed(job);
+                    continue;
+                }
+                if (accepted) {
+                    replayed.incrementAndGet();
+                } else {
+                    inFlight.remove(job.getId());
+                    generationJobDao.release(job.getId());
+                }
+            }
+        } catch (RuntimeException e) {
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    private void quietly(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            journalErrors.incrementAndGet();
+            e.printStackTrace();
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getJournalErrors() {
+        return journalErrors.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.service.messages;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.SheetFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.context.NoSuchMessageException;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Тексты и клавиатуры ответов, заранее собранные из tg_messages.messages для каждой локали.
+ * Ответ берет готовую строку и общий экземпляр InlineKeyboardMarkup, который никто не изменяет.
+ * Локали из messages.locales собираются при старте, остальные - при первом обращении.
+ * Если задан messages.reload-seconds, бандл перечитывается по таймеру и шаблоны заменяются целиком.
+ */
+@Service
+public class MessageTemplates {
+
+    public enum Keyboard {
+        START, LANG, ART_SETTINGS
+    }
+
+    private static final List<String> KEYS = List.of(
+            "start.message", "lang.message", "instruction.message", "properties.message", "property.accept",
+            "choose.preset.message", "custom.preset.message", "custom.properties.message",
+            "lang.button", "instruction.button", "lang.en", "lang.ru",
+            "photo.preset.button", "monochrome.preset.button", "custom.properties.button",
+            "format.reject", "denoising.reject", "brightness.reject", "no.found.format.reject",
+            "no.found.custom.properties.reject", "missing.file.reject", "image.too.large.reject", "no.photo.file.reject",
+            "generating.start", "generating.draft", "generating.upgrade", "quality.reject", "queue.overflow",
+            "album.start", "album.progress", "album.failed", "album.superseded");
+
+    /** Сообщения, к которым дописывается список команд форматов. */
+    private static final List<String> WITH_FORMATS = List.of("format.reject", "no.found.format.reject");
+
+    public static final String ART_SETTINGS = "art.settings";
+
+    /** Шаблоны одной локали. */
+    public static final class Localized {
+        private final Locale locale;
+        private final Map<String, String> texts;
+        private final Map<Keyboard, InlineKeyboardMarkup> keyboards;
+        private final MessageSource messageSource;
+
+        private Localized(Locale locale, Map<String, String> texts, Map<Keyboard, InlineKeyboardMarkup> keyboards,
+                          MessageSource messageSource) {
+            this.locale = locale;
+            this.texts = texts;
+            this.keyboards = keyboards;
+            this.messageSource = messageSource;
+        }
+
+        /** Текст по ключу; если его нет и в бандле, возвращается сам ключ. */
+        public String text(String key) {
+            String text = texts.get(key);
+            if (text != null) {
+                return text;
+            }
+            if (ART_SETTINGS.equals(key)) {
+                // составной текст, собирается из того, что есть
+                return text("choose.preset.message") + "\n\n" + text("custom.preset.message");
+            }
+            try {
+                return messageSource.getMessage(key, null, locale);
+            } catch (NoSuchMessageException e) {
+                return key;
+            }
+        }
+
+        public InlineKeyboardMarkup keyboard(Keyboard keyboard) {
+            return keyboards.get(keyboard);
+        }
+    }
+
+    private final MessageSource messageSource;
+
+    private final List<String> preloadedLocales;
+
+    private final String validFormatsCommands;
+
+    private volatile Map<String, Localized> templates = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "message-templates-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MessageTemplates(MessageSource messageSource,
+                            @Value("${messages.locales:en,ru}") List<String> preloadedLocales,
+                            @Value("${messages.reload-seconds:0}") long reloadSeconds) {
+        this.messageSource = messageSource;
+        this.preloadedLocales = preloadedLocales;
+        this.validFormatsCommands = Arrays.stream(SheetFormat.values())
+                .map(format -> "/" + format.name() + " ")
+                .collect(Collectors.joining());
+        reload();
+        if (reloadSeconds > 0) {
+            reloader.scheduleWithFixedDelay(this::reloadQuietly, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public Localized of(String localeTag) {
+        String tag = localeTag != null ? localeTag : "";
+        Localized localized = templates.get(tag);
+        return localized != null ? localized : templates.computeIfAbsent(tag, this::render);
+    }
+
+    public Localized of(Locale locale) {
+        return of(locale.toString());
+    }
+
+    public String getValidFormatsCommands() {
+        return validFormatsCommands;
+    }
+
+    /** Перечитывает бандл и пересобирает шаблоны всех уже использованных локалей. */
+    public void reload() {
+        if (messageSource instanceof ReloadableResourceBundleMessageSource reloadable) {
+            reloadable.clearCache();
+        }
+        Map<String, Localized> fresh = new ConcurrentHashMap<>();
+        for (String tag : preloadedLocales) {
+            fresh.put(tag, render(tag));
+        }
+        for (String tag : templates.keySet()) {
+            fresh.computeIfAbsent(tag, this::render);
+        }
+        templates = fresh;
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Localized render(String tag) {
+        Locale locale = new Locale(tag);
+        Map<String, String> texts = new HashMap<>();
+        for (String key : KEYS) {
+            try {
+                texts.put(key, messageSource.getMessage(key, null, locale));
+            } catch (NoSuchMessageException e) {
+                // нет в бандле, Localized.text обратится к MessageSource
+            }
+        }
+        for (String key : WITH_FORMATS) {
+            texts.computeIfPresent(key, (k, text) -> text + " " + validFormatsCommands);
+        }
+        if (texts.containsKey("choose.preset.message") && texts.containsKey("custom.preset.message")) {
+            texts.put(ART_SETTINGS, texts.get("choose.preset.message") + " " + validFormatsCommands + "\n\n" +
+                    texts.get("custom.preset.message"));
+        }
+
+        Map<Keyboard, InlineKeyboardMarkup> keyboards = new EnumMap<>(Keyboard.class);
+        keyboards.put(Keyboard.START, markup(List.of(List.of(
+                button(texts, "lang.button", "lang"), button(texts, "instruction.button", "instruction")))));
+        keyboards.put(Keyboard.LANG, markup(List.of(List.of(
+                button(texts, "lang.en", "en"), button(texts, "lang.ru", "ru")))));
+        keyboards.put(Keyboard.ART_SETTINGS, markup(List.of(
+                List.of(button(texts, "photo.preset.button", "photoPreset")),
+                List.of(button(texts, "monochrome.preset.button", "monochromePreset")),
+                List.of(button(texts, "custom.properties.button", "customProperties")))));
+        return new Localized(locale, Collections.unmodifiableMap(texts), Collections.unmodifiableMap(keyboards), messageSource);
+    }
+
+    private static InlineKeyboardMarkup markup(List<List<InlineKeyboardButton>> rows) {
+        InlineKeyboardMarkup inlineKeyboardMarkup = new InlineKeyboardMarkup();
+        inlineKeyboardMarkup.setKeyboard(rows);
+        return inlineKeyboardMarkup;
+    }
+
+    private static InlineKeyboardButton button(Map<String, String> texts, String key, String callbackData) {
+        InlineKeyboardButton inlineKeyboardButton = new InlineKeyboardButton();
+        inlineKeyboardButton.setText(texts.getOrDefault(key, key));
+        inlineKeyboardButton.setCallbackData(callbackData);
+        return inlineKeyboardButton;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reloader.shutdown();
+    }
+}
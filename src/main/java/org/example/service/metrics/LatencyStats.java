@@ -0,0 +1,57 @@
+package org.example.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Число вызовов и время выполнения одного этапа. Публикуется в Micrometer через PipelineMetrics,
+ * при включенном metrics.jfr.enabled каждый вызов также пишется событием JFR.
+ */
+public final class LatencyStats {
+
+    private static volatile boolean jfrEnabled;
+
+    private final String stage;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyStats(String stage) {
+        this.stage = stage;
+    }
+
+    /** Засекает этап, начатый в startNanos (System.nanoTime()). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        calls.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        if (jfrEnabled) {
+            PipelineStageEvent.emit(stage, nanos);
+        }
+    }
+
+    static void setJfrEnabled(boolean enabled) {
+        jfrEnabled = enabled;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.service.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.example.controllers.TelegramBot;
+import org.example.dao.TelegramUserCache;
+import org.example.dao.TelegramUserDao;
+import org.example.dao.TelegramUserWriteBuffer;
+import org.example.service.albums.AlbumRenderer;
+import org.example.service.albums.MediaGroupCollector;
+import org.example.service.commands.CommandRouter;
+import org.example.service.dispatch.UpdateDispatcher;
+import org.example.service.filefetch.TelegramFileFetcher;
+import org.example.service.images.DecodedImageCache;
+import org.example.service.images.ImageDecoder;
+import org.example.service.images.TiledImageOps;
+import org.example.service.images.raster.RasterPool;
+import org.example.service.jobs.JobJournal;
+import org.example.service.pdf.PdfSheetWriter;
+import org.example.service.preview.PreviewRenderer;
+import org.example.service.results.ResultCache;
+import org.example.service.scheduling.GenerationScheduler;
+import org.example.service.scheduling.RenderTierPolicy;
+import org.example.service.sending.FileIdIndex;
+import org.example.service.sending.OutboundMessageQueue;
+import org.example.service.spool.SpoolDirectory;
+import org.example.service.spool.SpoolWorker;
+import org.example.service.storage.OutputStorage;
+import org.example.service.webhook.UpdateDeduplicator;
+import org.example.service.webhook.WebhookIngestion;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Публикует счетчики компонентов конвейера в Micrometer (Actuator, /actuator/prometheus).
+ * Компоненты сами копят значения в атомарных счетчиках, здесь они только читаются при сборе метрик.
+ */
+@Component
+public class PipelineMetrics implements MeterBinder {
+
+    private final TelegramBot telegramBot;
+    private final UpdateDispatcher updateDispatcher;
+    private final TelegramUserDao telegramUserDao;
+    private final TelegramUserCache telegramUserCache;
+    private final TelegramUserWriteBuffer writeBuffer;
+    private final TelegramFileFetcher fileFetcher;
+    private final ImageDecoder imageDecoder;
+    private final DecodedImageCache imageCache;
+    private final TiledImageOps imageOps;
+    private final RasterPool rasterPool;
+    private final PdfSheetWriter pdfWriter;
+    private final PreviewRenderer previewRenderer;
+    private final MediaGroupCollector mediaGroupCollector;
+    private final AlbumRenderer albumRenderer;
+    private final GenerationScheduler generationScheduler;
+    private final RenderTierPolicy renderTierPolicy;
+    private final ResultCache resultCache;
+    private final JobJournal jobJournal;
+    private final SpoolDirectory spoolDirectory;
+    private final SpoolWorker spoolWorker;
+    private final OutputStorage outputStorage;
+    private final FileIdIndex fileIdIndex;
+    private final OutboundMessageQueue outboundQueue;
+    private final UpdateDeduplicator deduplicator;
+    private final ObjectProvider<WebhookIngestion> webhookIngestion;
+
+    public PipelineMetrics(TelegramBot telegramBot, UpdateDispatcher updateDispatcher, TelegramUserDao telegramUserDao,
+                           TelegramUserCache telegramUserCache, TelegramUserWriteBuffer writeBuffer,
+                           TelegramFileFetcher fileFetcher, ImageDecoder imageDecoder, DecodedImageCache imageCache,
+                           TiledImageOps imageOps, RasterPool rasterPool, PdfSheetWriter pdfWriter,
+                           PreviewRenderer previewRenderer, MediaGroupCollector mediaGroupCollector,
+                           AlbumRenderer albumRenderer, GenerationScheduler generationScheduler, RenderTierPolicy renderTierPolicy,
+                           ResultCache resultCache, JobJournal jobJournal, SpoolDirectory spoolDirectory, SpoolWorker spoolWorker,
+                           OutputStorage outputStorage, FileIdIndex fileIdIndex, OutboundMessageQueue outboundQueue,
+                           UpdateDeduplicator deduplicator, ObjectProvider<WebhookIngestion> webhookIngestion,
+                           @Value("${metrics.jfr.enabled:false}") boolean jfrEnabled) {
+        this.telegramBot = telegramBot;
+        this.updateDispatcher = updateDispatcher;
+        this.telegramUserDao = telegramUserDao;
+        this.telegramUserCache = telegramUserCache;
+        this.writeBuffer = writeBuffer;
+        this.fileFetcher = fileFetcher;
+        this.imageDecoder = imageDecoder;
+        this.imageCache = imageCache;
+        this.imageOps = imageOps;
+        this.rasterPool = rasterPool;
+        this.pdfWriter = pdfWriter;
+        this.previewRenderer = previewRenderer;
+        this.mediaGroupCollector = mediaGroupCollector;
+        this.albumRenderer = albumRenderer;
+        this.generationScheduler = generationScheduler;
+        this.renderTierPolicy = renderTierPolicy;
+        this.resultCache = resultCache;
+        this.jobJournal = jobJournal;
+        this.spoolDirectory = spoolDirectory;
+        this.spoolWorker = spoolWorker;
+        this.outputStorage = outputStorage;
+        this.fileIdIndex = fileIdIndex;
+        this.outboundQueue = outboundQueue;
+        this.deduplicator = deduplicator;
+        this.webhookIngestion = webhookIngestion;
+        LatencyStats.setJfrEnabled(jfrEnabled);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // входящие апдейты
+        counter(registry, "bot.updates.dispatched", updateDispatcher, UpdateDispatcher::getDispatched);
+        counter(registry, "bot.updates.completed", updateDispatcher, UpdateDispatcher::getCompleted);
+        counter(registry, "bot.updates.failed", updateDispatcher, UpdateDispatcher::getFailed);
+        timer(registry, "bot.updates.throttled", updateDispatcher, UpdateDispatcher::getThrottled,
+                UpdateDispatcher::getThrottledNanos);
+        gauge(registry, "bot.updates.pending", updateDispatcher, UpdateDispatcher::getPending);
+        gauge(registry, "bot.updates.active", updateDispatcher, UpdateDispatcher::getActive);
+        counter(registry, "bot.updates.duplicates", deduplicator, UpdateDeduplicator::getDuplicates);
+        webhookIngestion.ifAvailable(ingestion -> {
+            counter(registry, "bot.webhook.received", ingestion, WebhookIngestion::getReceived);
+            counter(registry, "bot.webhook.rejected", ingestion, WebhookIngestion::getRejected);
+            gauge(registry, "bot.webhook.queued", ingestion, WebhookIngestion::getQueued);
+        });
+
+        // команды
+        for (Map.Entry<String, LatencyStats> entry : telegramBot.getCommandRouter().getStats().entrySet()) {
+            stage(registry, "bot.command", "command", entry.getKey(), entry.getValue());
+        }
+        counter(registry, "bot.command.unmatched", telegramBot.getCommandRouter(), CommandRouter::getUnmatched);
+
+        // пользователи
+        for (LatencyStats stats : telegramUserDao.getQueryStats()) {
+            stage(registry, "bot.dao.query", "query", stats.getStage(), stats);
+        }
+        counter(registry, "bot.users.cache.hits", telegramUserCache, TelegramUserCache::getHits);
+        counter(registry, "bot.users.cache.misses", telegramUserCache, TelegramUserCache::getMisses);
+        counter(registry, "bot.users.cache.evictions", telegramUserCache, TelegramUserCache::getEvictions);
+        gauge(registry, "bot.users.write-behind.pending", writeBuffer, TelegramUserWriteBuffer::getPending);
+        counter(registry, "bot.users.write-behind.rows", writeBuffer, TelegramUserWriteBuffer::getRowsWritten);
+        counter(registry, "bot.users.write-behind.failed-flushes", writeBuffer, TelegramUserWriteBuffer::getFailedFlushes);
+        counter(registry, "bot.users.write-behind.dropped-rows", writeBuffer, TelegramUserWriteBuffer::getDroppedRows);
+        gauge(registry, "bot.users.write-behind.lag.ms", writeBuffer, TelegramUserWriteBuffer::getLastFlushLagMillis);
+
+        // загрузка и декодирование
+        timer(registry, "bot.files.download", fileFetcher, TelegramFileFetcher::getMisses, TelegramFileFetcher::getDownloadNanos);
+        counter(registry, "bot.files.download.bytes", fileFetcher, TelegramFileFetcher::getBytesDownloaded);
+        counter(registry, "bot.files.cache.hits", fileFetcher, TelegramFileFetcher::getHits);
+        gauge(registry, "bot.files.cache.bytes", fileFetcher, TelegramFileFetcher::getCachedBytes);
+        timer(registry, "bot.images.decode", imageDecoder, ImageDecoder::getDecoded, ImageDecoder::getDecodeNanos);
+        counter(registry, "bot.images.decode.rejected", imageDecoder, ImageDecoder::getRejected);
+        counter(registry, "bot.images.cache.hits", imageCache, DecodedImageCache::getHits);
+        counter(registry, "bot.images.cache.misses", imageCache, DecodedImageCache::getMisses);
+        gauge(registry, "bot.images.cache.bytes", imageCache, DecodedImageCache::getBytes);
+
+        // генерация
+        for (LatencyStats stats : imageOps.getStageStats()) {
+            stage(registry, "bot.render.stage", "stage", stats.getStage(), stats);
+        }
+        gauge(registry, "bot.render.pool.bytes", rasterPool, RasterPool::getPooledBytes);
+        counter(registry, "bot.render.pool.reused", rasterPool, RasterPool::getReused);
+        counter(registry, "bot.render.pool.allocated", rasterPool, RasterPool::getAllocated);
+        timer(registry, "bot.pdf.write", pdfWriter, PdfSheetWriter::getDocuments, PdfSheetWriter::getWriteNanos);
+        counter(registry, "bot.pdf.bytes", pdfWriter, PdfSheetWriter::getBytesWritten);
+        timer(registry, "bot.preview.render", previewRenderer, PreviewRenderer::getRendered, PreviewRenderer::getRenderNanos);
+        counter(registry, "bot.preview.failed", previewRenderer, PreviewRenderer::getFailed);
+        counter(registry, "bot.albums.collected", mediaGroupCollector, MediaGroupCollector::getCollected);
+        counter(registry, "bot.albums.collected.pages", mediaGroupCollector, MediaGroupCollector::getPages);
+        counter(registry, "bot.albums.truncated", mediaGroupCollector, MediaGroupCollector::getTruncated);
+        gauge(registry, "bot.albums.collecting", mediaGroupCollector, MediaGroupCollector::getCollecting);
+        timer(registry, "bot.albums.render", albumRenderer, AlbumRenderer::getAlbums, AlbumRenderer::getRenderNanos);
+        counter(registry, "bot.albums.pages", albumRenderer, AlbumRenderer::getPages);
+        counter(registry, "bot.albums.failed", albumRenderer, AlbumRenderer::getFailed);
+        gauge(registry, "bot.albums.queued", albumRenderer, AlbumRenderer::getQueued);
+        gauge(registry, "bot.scheduler.depth", generationScheduler, GenerationScheduler::getDepth);
+        gauge(registry, "bot.scheduler.queued-cost", generationScheduler, GenerationScheduler::getQueuedCost);
+        timer(registry, "bot.scheduler.wait", generationScheduler, GenerationScheduler::getHandedOff,
+                GenerationScheduler::getTotalWaitNanos);
+        counter(registry, "bot.scheduler.rejected", generationScheduler, GenerationScheduler::getRejected);
+        counter(registry, "bot.scheduler.superseded", generationScheduler, GenerationScheduler::getSuperseded);
+        counter(registry, "bot.tier.drafts", renderTierPolicy, RenderTierPolicy::getDrafts);
+        counter(registry, "bot.tier.full", renderTierPolicy, RenderTierPolicy::getFulls);
+        counter(registry, "bot.tier.drafts-skipped", renderTierPolicy, RenderTierPolicy::getDraftsSkipped);
+        counter(registry, "bot.tier.upgraded", renderTierPolicy, RenderTierPolicy::getUpgraded);
+        counter(registry, "bot.tier.upgrades-dropped", renderTierPolicy, RenderTierPolicy::getUpgradesDropped);
+        gauge(registry, "bot.tier.pending-upgrades", renderTierPolicy, RenderTierPolicy::getPendingUpgrades);
+        gauge(registry, "bot.tier.cpu-load", renderTierPolicy, RenderTierPolicy::getCpuLoad);
+        gauge(registry, "bot.jobs.in-flight", jobJournal, JobJournal::getInFlight);
+        counter(registry, "bot.jobs.recorded", jobJournal, JobJournal::getRecorded);
+        counter(registry, "bot.jobs.completed", jobJournal, JobJournal::getCompleted);
+        counter(registry, "bot.jobs.replayed", jobJournal, JobJournal::getReplayed);
+        counter(registry, "bot.jobs.failed", jobJournal, JobJournal::getFailed);
+        counter(registry, "bot.jobs.journal-errors", jobJournal, JobJournal::getJournalErrors);
+        gauge(registry, "bot.spool.pending", spoolDirectory, SpoolDirectory::getPending);
+        counter(registry, "bot.spool.submitted", spoolDirectory, SpoolDirectory::getSubmitted);
+        counter(registry, "bot.spool.rejected", spoolDirectory, SpoolDirectory::getRejected);
+        counter(registry, "bot.spool.failures", spoolDirectory, SpoolDirectory::getFailures);
+        if (spoolWorker.isEnabled()) {
+            counter(registry, "bot.spool.worker.taken", spoolDirectory, SpoolDirectory::getTaken);
+            counter(registry, "bot.spool.worker.accepted", spoolWorker, SpoolWorker::getAccepted);
+            counter(registry, "bot.spool.worker.busy", spoolWorker, SpoolWorker::getBusy);
+            counter(registry, "bot.spool.worker.failed", spoolWorker, SpoolWorker::getFailed);
+        }
+        gauge(registry, "bot.storage.disk.bytes", outputStorage, OutputStorage::getDiskBytes);
+        gauge(registry, "bot.storage.memory.bytes", outputStorage, OutputStorage::getMemoryBytes);
+        gauge(registry, "bot.storage.folders", outputStorage, OutputStorage::getFolders);
+        counter(registry, "bot.storage.memory.created", outputStorage, OutputStorage::getMemoryFolders);
+        counter(registry, "bot.storage.released", outputStorage, OutputStorage::getReleased);
+        counter(registry, "bot.storage.evicted", outputStorage, OutputStorage::getEvicted);
+        counter(registry, "bot.storage.evicted.bytes", outputStorage, OutputStorage::getEvictedBytes);
+        counter(registry, "bot.results.cache.hits", resultCache, ResultCache::getHits);
+        counter(registry, "bot.results.cache.misses", resultCache, ResultCache::getMisses);
+        gauge(registry, "bot.results.cache.bytes", resultCache, ResultCache::getBytes);
+        gauge(registry, "bot.results.cache.pending", resultCache, ResultCache::getPending);
+
+        // отправка
+        timer(registry, "bot.outbound.send", outboundQueue, OutboundMessageQueue::getSent, OutboundMessageQueue::getSendNanos);
+        gauge(registry, "bot.outbound.queued", outboundQueue, OutboundMessageQueue::getQueued);
+        counter(registry, "bot.outbound.failed", outboundQueue, OutboundMessageQueue::getFailed);
+        counter(registry, "bot.outbound.dropped", outboundQueue, OutboundMessageQueue::getDropped);
+        counter(registry, "bot.outbound.coalesced", outboundQueue, OutboundMessageQueue::getCoalesced);
+        counter(registry, "bot.outbound.retried", outboundQueue, OutboundMessageQueue::getRetried);
+        counter(registry, "bot.outbound.file-id.hits", fileIdIndex, FileIdIndex::getHits);
+        counter(registry, "bot.outbound.file-id.bytes-saved", fileIdIndex, FileIdIndex::getBytesSaved);
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, T source, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, source, value).register(registry);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).register(registry);
+    }
+
+    private static <T> void timer(MeterRegistry registry, String name, T source, ToLongFunction<T> count,
+                                  ToDoubleFunction<T> totalNanos) {
+        FunctionTimer.builder(name, source, count, totalNanos, TimeUnit.NANOSECONDS).register(registry);
+    }
+
+    private static void stage(MeterRegistry registry, String name, String tag, String value, LatencyStats stats) {
+        FunctionTimer.builder(name, stats, LatencyStats::getCalls, LatencyStats::getTotalNanos, TimeUnit.NANOSECONDS)
+                .tag(tag, value)
+                .register(registry);
+        Gauge.builder(name + ".max", stats, s -> s.getMaxNanos() / 1e6)
+                .tag(tag, value)
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+}
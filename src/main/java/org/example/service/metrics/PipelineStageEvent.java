@@ -0,0 +1,31 @@
+package org.example.service.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("org.example.PipelineStage")
+@Label("Pipeline Stage")
+@Category("StickPick")
+@StackTrace(false)
+class PipelineStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long durationNanos;
+
+    static void emit(String stage, long nanos) {
+        PipelineStageEvent event = new PipelineStageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.durationNanos = nanos;
+            event.commit();
+        }
+    }
+}
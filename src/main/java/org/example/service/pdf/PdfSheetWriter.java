@@ -0,0 +1,134 @@
+package org.example.service.pdf;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.example.models.SheetFormat;
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.Rasters;
+import org.example.service.storage.OutputStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запись листов в PDF с ограниченным расходом памяти.
+ * Документ держит потоки во временном файле PDFBox (scratch file), а не в куче.
+ * Черно-белые листы кодируются как 1-битные изображения CCITT G4 вместо RGB,
+ * страницы рендерятся по одной, и растр каждой страницы можно освободить сразу после кодирования.
+ */
+@Component
+public class PdfSheetWriter {
+
+    private static final float POINTS_PER_MM = 72f / 25.4f;
+
+    public interface BinaryPageSource {
+        BitMask render(int page) throws IOException;
+
+        /** Вызывается после того, как страница закодирована и растр больше не нужен. */
+        default void release(int page, BitMask mask) {
+        }
+    }
+
+    private final long maxMainMemoryBytes;
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    public PdfSheetWriter(@Value("${pdf.max-main-memory-bytes:8388608}") long maxMainMemoryBytes) {
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+    }
+
+    public void writeBinary(Path target, SheetFormat format, BitMask mask) throws IOException {
+        writeBinary(target, format, 1, page -> mask);
+    }
+
+    public void writeBinary(Path target, SheetFormat format, int pageCount, BinaryPageSource source) throws IOException {
+        long start = System.nanoTime();
+        try (PDDocument document = new PDDocument(memoryUsage())) {
+            for (int i = 0; i < pageCount; i++) {
+                BitMask mask = source.render(i);
+                PDImageXObject image;
+                try {
+                    image = CCITTFactory.createFromImage(document, Rasters.toImage(mask));
+                } finally {
+                    source.release(i, mask);
+                }
+                addPage(document, format, image);
+            }
+            save(document, target);
+        } finally {
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /** Для листов в оттенках серого или цвете, сжатие без потерь. */
+    public void writeImage(Path target, SheetFormat format, BufferedImage sheet) throws IOException {
+        long start = System.nanoTime();
+        try (PDDocument document = new PDDocument(memoryUsage())) {
+            addPage(document, format, LosslessFactory.createFromImage(document, sheet));
+            save(document, target);
+        } finally {
+            writeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private MemoryUsageSetting memoryUsage() {
+        return maxMainMemoryBytes > 0 ? MemoryUsageSetting.setupMixed(maxMainMemoryBytes) : MemoryUsageSetting.setupTempFileOnly();
+    }
+
+    private void addPage(PDDocument document, SheetFormat format, PDImageXObject image) throws IOException {
+        PDRectangle size = format != null
+                ? new PDRectangle(format.getWidthMm() * POINTS_PER_MM, format.getHeightMm() * POINTS_PER_MM)
+                : new PDRectangle(image.getWidth(), image.getHeight());
+        if (format != null && image.getWidth() > image.getHeight()) {
+            size = new PDRectangle(size.getHeight(), size.getWidth());
+        }
+        PDPage page = new PDPage(size);
+        document.addPage(page);
+        try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+            content.drawImage(image, 0, 0, size.getWidth(), size.getHeight());
+        }
+        pages.incrementAndGet();
+    }
+
+    private void save(PDDocument document, Path target) throws IOException {
+        OutputStorage.writeAtomically(target, out -> {
+            try (OutputStream buffered = new BufferedOutputStream(out)) {
+                document.save(buffered);
+            }
+        });
+        documents.incrementAndGet();
+        bytesWritten.addAndGet(Files.size(target));
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+}
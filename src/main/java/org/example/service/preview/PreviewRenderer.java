@@ -0,0 +1,160 @@
+package org.example.service.preview;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.SheetFormat;
+import org.example.service.images.TiledImageOps;
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.GrayRaster;
+import org.example.service.images.raster.Rasters;
+import org.example.service.storage.OutputStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Быстрое превью листа по уменьшенной копии изображения. Рендерится в отдельном пуле
+ * параллельно с полной генерацией, чтобы пользователь увидел результат раньше, чем будет готов result.pdf.
+ * Это приблизительная картинка, а не результат генератора, поэтому она отправляется фото в PNG, а не третьим PDF.
+ */
+@Service
+public class PreviewRenderer {
+
+    public static final String FILE_NAME = "quick_preview.png";
+
+    /**
+     * @param dither  упорядоченный дизеринг вместо порога
+     * @param level   порог яркости, если dither == false
+     * @param minArea минимальная площадь пятна на листе полного разрешения, 0 - не удалять
+     */
+    public record Style(boolean dither, int level, int minArea) {
+
+        public static Style photo() {
+            return new Style(true, 128, 0);
+        }
+
+        public static Style monochrome() {
+            return new Style(false, 128, 0);
+        }
+
+        public static Style custom(int brightnessLevel, int smallDetailsRemover) {
+            return new Style(false, brightnessLevel, smallDetailsRemover);
+        }
+    }
+
+    private final TiledImageOps imageOps;
+
+    private final int dpi;
+
+    private final int fullDpi;
+
+    private final boolean enabled;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+
+    public PreviewRenderer(TiledImageOps imageOps,
+                           @Value("${preview.dpi:60}") int dpi,
+                           @Value("${image.decode.dpi:300}") int fullDpi,
+                           @Value("${preview.threads:2}") int threads,
+                           @Value("${preview.enabled:true}") boolean enabled) {
+        this.imageOps = imageOps;
+        this.dpi = dpi;
+        this.fullDpi = fullDpi;
+        this.enabled = enabled;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "preview-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<Path> render(BufferedImage image, String sheetFormat, Style style, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                renderNow(image, sheetFormat, style, target);
+                rendered.incrementAndGet();
+                return target;
+            } catch (IOException e) {
+                failed.incrementAndGet();
+                throw new UncheckedIOException(e);
+            } finally {
+                renderNanos.addAndGet(System.nanoTime() - start);
+            }
+        }, executor);
+    }
+
+    public void renderNow(BufferedImage image, String sheetFormat, Style style, Path target) throws IOException {
+        SheetFormat format = SheetFormat.of(sheetFormat);
+        BufferedImage small = downscale(image, format != null ? format : SheetFormat.A4);
+        GrayRaster gray = imageOps.toGray(small);
+        BitMask mask;
+        try {
+            mask = style.dither() ? imageOps.orderedDither(gray) : imageOps.threshold(gray, style.level());
+        } finally {
+            imageOps.release(gray);
+        }
+        try {
+            if (style.minArea() > 0) {
+                double scale = (double) dpi / fullDpi;
+                imageOps.removeSmallDetails(mask, Math.max(1, (int) Math.round(style.minArea() * scale * scale)));
+            }
+            BufferedImage preview = Rasters.toImage(mask);
+            OutputStorage.writeAtomically(target, out -> ImageIO.write(preview, "png", out));
+        } finally {
+            imageOps.release(mask);
+        }
+    }
+
+    BufferedImage downscale(BufferedImage image, SheetFormat format) {
+        int sheetLong = format.getHeightPx(dpi);
+        int imageLong = Math.max(image.getWidth(), image.getHeight());
+        double scale = Math.min(1.0, (double) sheetLong / imageLong);
+        int w = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage small = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return small;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getRendered() {
+        return rendered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRenderNanos() {
+        return renderNanos.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
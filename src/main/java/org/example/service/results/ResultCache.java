@@ -0,0 +1,199 @@
+package org.example.service.results;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кэш готовых результатов генерации. Ключ - содержимое изображения (file_unique_id), тип генератора и его параметры.
+ * При попадании повторно отправляются file_id, которые Telegram вернул при первой отправке,
+ * или, если их нет, уже сгенерированные PDF из filepath.
+ * Записи живут ttl и вытесняются, когда PDF занимают больше maxBytes на диске.
+ */
+@Service
+public class ResultCache {
+
+    public record Key(String contentId, String generator, String sheetFormat, Integer brightnessLevel,
+                      Integer smallDetailsRemover) {
+    }
+
+    public record Entry(Key key, List<Path> files, List<String> fileIds, long createdAt, long bytes) {
+
+        public boolean hasFileIds() {
+            return !fileIds.isEmpty() && fileIds.stream().allMatch(Objects::nonNull);
+        }
+    }
+
+    private record Pending(Key key, long since) {
+    }
+
+    private final long ttlMillis;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // папка задачи -> ключ, пока результат еще не отправлен
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ResultCache(@Value("${results.cache.ttl-hours:24}") long ttlHours,
+                       @Value("${results.cache.max-bytes:2147483648}") long maxBytes) {
+        this.ttlMillis = ttlHours * 3600_000;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized Entry lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt() > ttlMillis) {
+            evict(key, entry);
+            entry = null;
+        }
+        if (entry != null && !entry.hasFileIds() && !entry.files().stream().allMatch(Files::exists)) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /**
+     * Запоминает, что результат для key будет записан в папку folder. Ожидание, которое не закрыли
+     * ни completed, ни forget (например, генератор упал), забывается через ttl.
+     */
+    public void expect(Key key, Path folder) {
+        long now = System.currentTimeMillis();
+        pending.values().removeIf(p -> now - p.since() > ttlMillis);
+        pending.put(folder.toAbsolutePath().normalize(), new Pending(key, now));
+    }
+
+    /** Задача отменена или не выполнена, результата в folder не будет. */
+    public void forget(Path folder) {
+        pending.remove(folder.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Вызывается после отправки результата.
+     *
+     * @param fileIds file_id отправленных документов в том же порядке, null если отправка не удалась
+     */
+    public void completed(List<Path> files, List<String> fileIds) {
+        if (files.isEmpty()) {
+            return;
+        }
+        Pending expected = pending.remove(files.get(0).toAbsolutePath().normalize().getParent());
+        if (expected == null) {
+            if (fileIds != null) {
+                attachFileIds(files, fileIds);
+            }
+            return;
+        }
+        long bytes = 0;
+        for (Path file : files) {
+            try {
+                bytes += Files.size(file);
+            } catch (IOException e) {
+                // файл уже удален, останутся только file_id
+            }
+        }
+        put(new Entry(expected.key(), List.copyOf(files), fileIds != null ? new ArrayList<>(fileIds) : List.of(),
+                System.currentTimeMillis(), bytes));
+    }
+
+    /** Результат из кэша повторно отправлен файлами, дальше его можно отправлять по file_id. */
+    private synchronized void attachFileIds(List<Path> files, List<String> fileIds) {
+        for (Entry entry : entries.values()) {
+            if (entry.files().equals(files) && !entry.hasFileIds()) {
+                put(new Entry(entry.key(), entry.files(), new ArrayList<>(fileIds), entry.createdAt(), 0));
+                return;
+            }
+        }
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry previous = entries.put(entry.key(), entry);
+        totalBytes += entry.bytes() - (previous != null ? previous.bytes() : 0);
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Key, Entry> eldest = it.next();
+            if (eldest.getKey().equals(entry.key())) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue().bytes();
+            deleteFiles(eldest.getValue());
+            evictions++;
+        }
+    }
+
+    private void evict(Key key, Entry entry) {
+        remove(key);
+        deleteFiles(entry);
+        evictions++;
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.bytes();
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        for (Path file : entry.files()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,347 @@
+package org.example.service.scheduling;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.SheetFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Очередь задач генерации перед StickPickService.
+ * Задачи разных пользователей выдаются по weighted fair queuing: у каждой задачи есть стоимость
+ * (мегапиксели изображения, умноженные на площадь листа относительно A4), и следующей уходит задача
+ * с наименьшим виртуальным временем окончания. У пользователя может быть не больше maxPendingPerUser
+ * ожидающих задач, новая задача сверх квоты заменяет последнюю ожидающую.
+ * Вытесненная или отмененная задача не пропадает молча: вызывается ее dropped.
+ */
+@Service
+public class GenerationScheduler {
+
+    public enum SubmitResult {
+        ACCEPTED,
+        SUPERSEDED,
+        REJECTED
+    }
+
+    private final int maxQueued;
+
+    private final int maxPendingPerUser;
+
+    private final long retryDelayMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final Map<Long, UserQueue> queues = new HashMap<>();
+
+    private final Thread dispatcher;
+
+    private double virtualTime;
+
+    private int depth;
+
+    private long queuedCost;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong handedOff = new AtomicLong();
+    private final AtomicLong downstreamBusy = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public GenerationScheduler(@Value("${scheduler.max-queued:200}") int maxQueued,
+                               @Value("${scheduler.max-pending-per-user:1}") int maxPendingPerUser,
+                               @Value("${scheduler.retry-delay-ms:200}") long retryDelayMillis) {
+        this.maxQueued = maxQueued;
+        this.maxPendingPerUser = maxPendingPerUser;
+        this.retryDelayMillis = retryDelayMillis;
+        this.dispatcher = new Thread(this::dispatchLoop, "generation-scheduler");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public static long estimateCost(BufferedImage image, String sheetFormat) {
+        SheetFormat format = SheetFormat.of(sheetFormat);
+        long megapixels = Math.max(1, (long) image.getWidth() * image.getHeight() / 1_000_000);
+        return megapixels * (format != null ? format.getA4Multiplier() : 1);
+    }
+
+    public SubmitResult submit(Long userId, long cost, BooleanSupplier handoff) {
+        return submit(userId, cost, handoff, null);
+    }
+
+    /**
+     * @param handoff передает задачу дальше (обычно stickPickService.add), false если исполнитель занят
+     * @param dropped вызывается вне блокировки, если задачу вытеснила более новая задача пользователя
+     *                или очередь пользователя отменена; может быть null
+     */
+    public SubmitResult submit(Long userId, long cost, BooleanSupplier handoff, Runnable dropped) {
+        submitted.incrementAndGet();
+        Job replaced = null;
+        lock.lock();
+        try {
+            UserQueue queue = queues.computeIfAbsent(userId, k -> new UserQueue());
+            // задачу, которую сейчас передают исполнителю, заменить уже нельзя
+            Job head = queue.jobs.peekFirst();
+            int pending = queue.jobs.size() - (head != null && head.dispatching ? 1 : 0);
+            if (pending >= maxPendingPerUser && pending > 0) {
+                replaced = queue.jobs.pollLast();
+                remove(queue, replaced);
+                enqueue(queue, new Job(cost, handoff, dropped, replaced.queuedAt));
+                superseded.incrementAndGet();
+                changed.signal();
+                return SubmitResult.SUPERSEDED;
+            }
+            if (depth >= maxQueued) {
+                if (queue.jobs.isEmpty()) {
+                    queues.remove(userId);
+                }
+                rejected.incrementAndGet();
+                return SubmitResult.REJECTED;
+            }
+            enqueue(queue, new Job(cost, handoff, dropped, System.nanoTime()));
+            accepted.incrementAndGet();
+            changed.signal();
+            return SubmitResult.ACCEPTED;
+        } finally {
+            lock.unlock();
+            if (replaced != null) {
+                notifyDropped(List.of(replaced));
+            }
+        }
+    }
+
+    public int cancel(Long userId) {
+        List<Job> removed = new ArrayList<>();
+        lock.lock();
+        try {
+            UserQueue queue = queues.remove(userId);
+            if (queue == null) {
+                return 0;
+            }
+            for (Job job : queue.jobs) {
+                depth--;
+                queuedCost -= job.cost;
+                // задачу, которую сейчас передают исполнителю, уже не отменить
+                if (!job.dispatching) {
+                    removed.add(job);
+                }
+            }
+            cancelled.addAndGet(queue.jobs.size());
+            return queue.jobs.size();
+        } finally {
+            lock.unlock();
+            notifyDropped(removed);
+        }
+    }
+
+    private static void notifyDropped(List<Job> jobs) {
+        for (Job job : jobs) {
+            if (job.dropped == null) {
+                continue;
+            }
+            try {
+                job.dropped.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void enqueue(UserQueue queue, Job job) {
+        double start = Math.max(virtualTime, queue.lastFinish);
+        job.finishTag = start + job.cost;
+        queue.lastFinish = job.finishTag;
+        queue.jobs.addLast(job);
+        depth++;
+        queuedCost += job.cost;
+    }
+
+    private void remove(UserQueue queue, Job job) {
+        queue.lastFinish -= job.cost;
+        depth--;
+        queuedCost -= job.cost;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Long userId;
+            Job job;
+            lock.lock();
+            try {
+                Map.Entry<Long, UserQueue> next = null;
+                while (running && (next = nextQueue()) == null) {
+                    changed.await();
+                }
+                if (!running) {
+                    return;
+                }
+                userId = next.getKey();
+                job = next.getValue().jobs.peekFirst();
+                job.dispatching = true;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean taken;
+            try {
+                taken = job.handoff.getAsBoolean();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                taken = true;
+            }
+
+            lock.lock();
+            try {
+                job.dispatching = false;
+                if (taken) {
+                    UserQueue queue = queues.get(userId);
+                    if (queue != null && queue.jobs.peekFirst() == job) {
+                        queue.jobs.pollFirst();
+                        depth--;
+                        queuedCost -= job.cost;
+                        virtualTime = Math.max(virtualTime, job.finishTag);
+                        if (queue.jobs.isEmpty()) {
+                            queues.remove(userId);
+                        }
+                    }
+                    long waited = System.nanoTime() - job.queuedAt;
+                    handedOff.incrementAndGet();
+                    totalWaitNanos.addAndGet(waited);
+                    maxWaitNanos.accumulateAndGet(waited, Math::max);
+                } else {
+                    downstreamBusy.incrementAndGet();
+                    changed.await(retryDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Map.Entry<Long, UserQueue> nextQueue() {
+        Map.Entry<Long, UserQueue> best = null;
+        for (Map.Entry<Long, UserQueue> entry : queues.entrySet()) {
+            Job head = entry.getValue().jobs.peekFirst();
+            if (head != null && (best == null || head.finishTag < best.getValue().jobs.peekFirst().finishTag)) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedCost() {
+        lock.lock();
+        try {
+            return queuedCost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getSuperseded() {
+        return superseded.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    public long getHandedOff() {
+        return handedOff.get();
+    }
+
+    /** Сколько раз исполнитель отказал в приеме задачи и ее пришлось отложить. */
+    public long getDownstreamBusy() {
+        return downstreamBusy.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dispatcher.interrupt();
+    }
+
+    private static class UserQueue {
+        private final Deque<Job> jobs = new ArrayDeque<>();
+        private double lastFinish;
+    }
+
+    private static class Job {
+        private final long cost;
+        private final BooleanSupplier handoff;
+        private final Runnable dropped;
+        private final long queuedAt;
+        private double finishTag;
+        // передается исполнителю вне блокировки
+        private boolean dispatching;
+
+        private Job(long cost, BooleanSupplier handoff, Runnable dropped, long queuedAt) {
+            this.cost = cost;
+            this.handoff = handoff;
+            this.dropped = dropped;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.example.service.scheduling;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.GenerationJob;
+import org.example.models.TelegramUser;
+import org.example.service.images.ImageDecoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выбор качества генерации. Под нагрузкой (глубокая очередь GenerationScheduler или загруженный процессор)
+ * пользователи с настройкой auto получают черновик: изображение декодируется с draftDpi вместо полной плотности,
+ * и генерация занимает в разы меньше времени. Черновики запоминаются и, когда очередь пуста и процессор свободен,
+ * по одному пересчитываются в полном качестве. Если черновик вышел бы почти таким же, как полное изображение
+ * (обычное фото Telegram на A4 и так меньше листа при полной плотности), считается сразу полная версия.
+ */
+@Service
+public class RenderTierPolicy {
+
+    /** Ставит полную версию черновика в очередь, false если сейчас не получилось и нужно попробовать позже. */
+    public interface Upgrader {
+        boolean upgrade(GenerationJob draft);
+    }
+
+    // черновик должен быть хотя бы вдвое меньше полного изображения
+    private static final int MIN_DRAFT_REDUCTION = 2;
+
+    private final GenerationScheduler generationScheduler;
+
+    private final ImageDecoder imageDecoder;
+
+    private final boolean enabled;
+
+    private final int draftDpi;
+
+    private final int draftQueueDepth;
+
+    private final double draftCpuLoad;
+
+    private final double idleCpuLoad;
+
+    private final long upgradeIntervalMillis;
+
+    private final int maxUpgrades;
+
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    // пользователь -> последний черновик, в порядке постановки
+    private final LinkedHashMap<Long, GenerationJob> upgrades = new LinkedHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "render-tier-upgrades");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Upgrader upgrader;
+
+    private final AtomicLong drafts = new AtomicLong();
+    private final AtomicLong fulls = new AtomicLong();
+    private final AtomicLong draftsSkipped = new AtomicLong();
+    private final AtomicLong upgraded = new AtomicLong();
+    private final AtomicLong upgradesDropped = new AtomicLong();
+
+    public RenderTierPolicy(GenerationScheduler generationScheduler, ImageDecoder imageDecoder,
+                            @Value("${tier.enabled:true}") boolean enabled,
+                            @Value("${tier.draft-dpi:100}") int draftDpi,
+                            @Value("${tier.draft-queue-depth:8}") int draftQueueDepth,
+                            @Value("${tier.draft-cpu-load:0.85}") double draftCpuLoad,
+                            @Value("${tier.idle-cpu-load:0.5}") double idleCpuLoad,
+                            @Value("${tier.upgrade-interval-ms:2000}") long upgradeIntervalMillis,
+                            @Value("${tier.max-upgrades:200}") int maxUpgrades) {
+        this.generationScheduler = generationScheduler;
+        this.imageDecoder = imageDecoder;
+        this.enabled = enabled;
+        this.draftDpi = draftDpi;
+        this.draftQueueDepth = draftQueueDepth;
+        this.draftCpuLoad = draftCpuLoad;
+        this.idleCpuLoad = idleCpuLoad;
+        this.upgradeIntervalMillis = upgradeIntervalMillis;
+        this.maxUpgrades = maxUpgrades;
+    }
+
+    public void setUpgrader(Upgrader upgrader) {
+        this.upgrader = upgrader;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            executor.scheduleWithFixedDelay(this::upgradeNext, upgradeIntervalMillis, upgradeIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param renderQuality настройка пользователя, null - auto
+     * @param source        исходный файл, по его заголовку видно, уменьшит ли черновик изображение
+     */
+    public String choose(String renderQuality, Path source, String sheetFormat) {
+        boolean draft = TelegramUser.QUALITY_DRAFT.equals(renderQuality)
+                || enabled && !TelegramUser.QUALITY_FULL.equals(renderQuality) && isBusy();
+        if (draft && !reduces(source, sheetFormat)) {
+            draftsSkipped.incrementAndGet();
+            draft = false;
+        }
+        (draft ? drafts : fulls).incrementAndGet();
+        return draft ? GenerationJob.TIER_DRAFT : GenerationJob.TIER_FULL;
+    }
+
+    private boolean reduces(Path source, String sheetFormat) {
+        try {
+            long full = imageDecoder.decodedPixels(source, sheetFormat, imageDecoder.getDpi());
+            long draft = imageDecoder.decodedPixels(source, sheetFormat, draftDpi);
+            return draft > 0 && draft * MIN_DRAFT_REDUCTION <= full;
+        } catch (IOException e) {
+            // файл не читается, ошибку покажет декодирование
+            return false;
+        }
+    }
+
+    /** Запоминает черновик, чтобы пересчитать его в полном качестве, когда появятся свободные ресурсы. */
+    public synchronized void offerUpgrade(GenerationJob draft) {
+        upgrades.remove(draft.getTelegramUserId());
+        upgrades.put(draft.getTelegramUserId(), draft);
+        Iterator<GenerationJob> it = upgrades.values().iterator();
+        while (upgrades.size() > maxUpgrades && it.hasNext()) {
+            it.next();
+            it.remove();
+            upgradesDropped.incrementAndGet();
+        }
+    }
+
+    /** Пользователь запустил новую генерацию, старый черновик пересчитывать незачем. */
+    public synchronized void forget(Long telegramUserId) {
+        upgrades.remove(telegramUserId);
+    }
+
+    private void upgradeNext() {
+        Upgrader current = upgrader;
+        if (current == null || !isIdle()) {
+            return;
+        }
+        GenerationJob draft;
+        synchronized (this) {
+            Iterator<Map.Entry<Long, GenerationJob>> it = upgrades.entrySet().iterator();
+            if (!it.hasNext()) {
+                return;
+            }
+            draft = it.next().getValue();
+            it.remove();
+        }
+        try {
+            if (current.upgrade(draft)) {
+                upgraded.incrementAndGet();
+                return;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            upgradesDropped.incrementAndGet();
+            return;
+        }
+        synchronized (this) {
+            // за это время пользователь мог запустить новую генерацию
+            upgrades.putIfAbsent(draft.getTelegramUserId(), draft);
+        }
+    }
+
+    public boolean isBusy() {
+        return generationScheduler.getDepth() >= draftQueueDepth || getCpuLoad() >= draftCpuLoad;
+    }
+
+    public boolean isIdle() {
+        return generationScheduler.getDepth() == 0 && getCpuLoad() < idleCpuLoad;
+    }
+
+    /** Загрузка процессора от 0 до 1 по всей машине, включая процессы-исполнители. */
+    public double getCpuLoad() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean bean) {
+            double load = bean.getCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double average = os.getSystemLoadAverage();
+        return average < 0 ? 0 : Math.min(1.0, average / os.getAvailableProcessors());
+    }
+
+    public int getDraftDpi() {
+        return draftDpi;
+    }
+
+    public synchronized int getPendingUpgrades() {
+        return upgrades.size();
+    }
+
+    public long getDrafts() {
+        return drafts.get();
+    }
+
+    public long getFulls() {
+        return fulls.get();
+    }
+
+    /** Черновики, замененные полной версией, потому что не уменьшали изображение. */
+    public long getDraftsSkipped() {
+        return draftsSkipped.get();
+    }
+
+    public long getUpgraded() {
+        return upgraded.get();
+    }
+
+    public long getUpgradesDropped() {
+        return upgradesDropped.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,195 @@
+package org.example.service.sending;
+
+import org.example.dao.TelegramFileDao;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Индекс "SHA-256 содержимого файла -> file_id", который Telegram вернул при первой загрузке.
+ * Повторная отправка тех же байтов идет по file_id без загрузки файла.
+ * Индекс хранится в таблице telegram_file, последние записи и хэши недавно прочитанных файлов держатся в памяти.
+ */
+@Service
+public class FileIdIndex {
+
+    public static final String DOCUMENT = "document";
+    public static final String PHOTO = "photo";
+
+    private record Stamp(long size, long modified, String hash) {
+    }
+
+    private final TelegramFileDao telegramFileDao;
+
+    private final int maxSize;
+
+    // путь -> хэш, пока файл не менялся
+    private final LinkedHashMap<Path, Stamp> hashes;
+
+    // хэш:тип -> file_id
+    private final LinkedHashMap<String, String> fileIds;
+
+    private long hits;
+    private long misses;
+    private long uploads;
+    private long bytesSaved;
+
+    public FileIdIndex(TelegramFileDao telegramFileDao, @Value("${files.ids.cache-size:4096}") int maxSize) {
+        this.telegramFileDao = telegramFileDao;
+        this.maxSize = maxSize;
+        this.hashes = lru();
+        this.fileIds = lru();
+    }
+
+    private <K, V> LinkedHashMap<K, V> lru() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /** file_id ранее загруженного файла с тем же содержимым или null. */
+    public String lookup(Path file, String mediaType) {
+        String hash = hash(file);
+        if (hash == null) {
+            return null;
+        }
+        String key = hash + ":" + mediaType;
+        String fileId;
+        synchronized (this) {
+            fileId = fileIds.get(key);
+        }
+        if (fileId == null) {
+            fileId = telegramFileDao.findFileId(hash, mediaType);
+        }
+        synchronized (this) {
+            if (fileId == null) {
+                misses++;
+                return null;
+            }
+            fileIds.put(key, fileId);
+            hits++;
+            bytesSaved += sizeOf(file);
+        }
+        return fileId;
+    }
+
+    public void record(Path file, String mediaType, String fileId) {
+        String hash = hash(file);
+        if (hash == null || fileId == null) {
+            return;
+        }
+        telegramFileDao.save(hash, mediaType, fileId, sizeOf(file));
+        synchronized (this) {
+            fileIds.put(hash + ":" + mediaType, fileId);
+            uploads++;
+        }
+    }
+
+    /** Забывает file_id, который Telegram больше не принимает. */
+    public void forget(Path file, String mediaType) {
+        String hash = hash(file);
+        if (hash == null) {
+            return;
+        }
+        synchronized (this) {
+            fileIds.remove(hash + ":" + mediaType);
+        }
+        telegramFileDao.delete(hash, mediaType);
+    }
+
+    /** Telegram отклонил сохраненный file_id (400 "wrong file identifier/HTTP URL specified"). */
+    public static boolean isRejectedFileId(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (!(error instanceof TelegramApiRequestException requestException)
+                || !Integer.valueOf(400).equals(requestException.getErrorCode())
+                || requestException.getApiResponse() == null) {
+            return false;
+        }
+        String response = requestException.getApiResponse().toLowerCase(Locale.ROOT);
+        return response.contains("wrong file identifier") || response.contains("wrong remote file identifier");
+    }
+
+    /** file_id из ответа на отправку: документ или самый крупный размер фото. */
+    public static String fileIdOf(Message message, String mediaType) {
+        if (PHOTO.equals(mediaType) && message.hasPhoto()) {
+            List<PhotoSize> sizes = message.getPhoto();
+            return sizes.get(sizes.size() - 1).getFileId();
+        }
+        if (DOCUMENT.equals(mediaType) && message.hasDocument()) {
+            return message.getDocument().getFileId();
+        }
+        return null;
+    }
+
+    private String hash(Path file) {
+        try {
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            synchronized (this) {
+                Stamp stamp = hashes.get(file);
+                if (stamp != null && stamp.size() == size && stamp.modified() == modified) {
+                    return stamp.hash();
+                }
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            synchronized (this) {
+                hashes.put(file, new Stamp(size, modified, hash));
+            }
+            return hash;
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getUploads() {
+        return uploads;
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+}
@@ -0,0 +1,326 @@
+package org.example.service.sending;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь исходящих запросов к Bot API. Запросы отправляются через executeAsync и не блокируют обработчики апдейтов.
+ * Скорость ограничена двумя token bucket: общим (30 сообщений/с) и отдельным для каждого чата (1 сообщение/с).
+ * Чаты обслуживаются по кругу, поэтому один активный чат не задерживает остальные.
+ * Ответ 429 блокирует чат на retry_after секунд, запрос возвращается в начало очереди чата.
+ * Статусные сообщения, еще не ушедшие в чат, склеиваются по coalesceKey: место в очереди остается за первым,
+ * а отправляется последний, поэтому пользователь видит свежий текст.
+ */
+@Service
+public class OutboundMessageQueue {
+
+    /** Запуск отправки, обычно bot.executeAsync(method). */
+    public interface Send<T> {
+        CompletableFuture<T> start() throws TelegramApiException;
+    }
+
+    private static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(double ratePerSecond, double capacity, long now) {
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        /** Сколько ждать до следующего токена, 0 - токен есть. */
+        long waitNanos(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+    }
+
+    private static final class Item {
+        final String coalesceKey;
+        // заменяется более новым запросом с тем же coalesceKey, читается и пишется под lock
+        Send<?> send;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final long enqueuedAt = System.nanoTime();
+        int attempts;
+
+        Item(String coalesceKey, Send<?> send) {
+            this.coalesceKey = coalesceKey;
+            this.send = send;
+        }
+    }
+
+    private static final class Chat {
+        final ArrayDeque<Item> items = new ArrayDeque<>();
+        final TokenBucket bucket;
+        long blockedUntil;
+
+        Chat(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    private final double chatRate;
+
+    private final double chatBurst;
+
+    private final int maxQueued;
+
+    private final int maxRetries;
+
+    private final TokenBucket global;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    // активные чаты в порядке обслуживания
+    private final LinkedHashMap<Long, Chat> chats = new LinkedHashMap<>();
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    private int queued;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    public OutboundMessageQueue(@Value("${outbound.global-rate:30}") double globalRate,
+                                @Value("${outbound.chat-rate:1}") double chatRate,
+                                @Value("${outbound.chat-burst:3}") double chatBurst,
+                                @Value("${outbound.max-queued:10000}") int maxQueued,
+                                @Value("${outbound.max-retries:3}") int maxRetries) {
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxQueued = maxQueued;
+        this.maxRetries = maxRetries;
+        this.global = new TokenBucket(globalRate, globalRate, System.nanoTime());
+        this.dispatcher = new Thread(this::dispatchLoop, "outbound-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Ставит запрос в очередь чата.
+     *
+     * @param coalesceKey если в очереди чата уже ждет запрос с тем же ключом, новый занимает его место
+     *                    и оба получают результат его отправки; null - не склеивать
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(Long chatId, String coalesceKey, Send<T> send) {
+        submitted.incrementAndGet();
+        lock.lock();
+        try {
+            Chat chat = chats.get(chatId);
+            if (coalesceKey != null && chat != null) {
+                for (Item item : chat.items) {
+                    if (coalesceKey.equals(item.coalesceKey)) {
+                        item.send = send;
+                        coalesced.incrementAndGet();
+                        return (CompletableFuture<T>) item.result;
+                    }
+                }
+            }
+            if (queued >= maxQueued) {
+                dropped.incrementAndGet();
+                return CompletableFuture.failedFuture(new RejectedExecutionException("outbound queue is full"));
+            }
+            if (chat == null) {
+                chat = new Chat(new TokenBucket(chatRate, chatBurst, System.nanoTime()));
+                chats.put(chatId, chat);
+            }
+            Item item = new Item(coalesceKey, send);
+            chat.items.addLast(item);
+            queued++;
+            changed.signal();
+            return (CompletableFuture<T>) item.result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        lock.lock();
+        try {
+            while (running) {
+                long now = System.nanoTime();
+                long wait = dispatchReady(now);
+                if (wait > 0) {
+                    changed.awaitNanos(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Отправляет по одному запросу из каждого чата, для которого есть токены.
+     *
+     * @return сколько ждать до следующей возможной отправки
+     */
+    private long dispatchReady(long now) {
+        long wait = TimeUnit.SECONDS.toNanos(1);
+        Iterator<Map.Entry<Long, Chat>> it = chats.entrySet().iterator();
+        LinkedHashMap<Long, Chat> served = new LinkedHashMap<>();
+        while (it.hasNext()) {
+            Map.Entry<Long, Chat> entry = it.next();
+            Chat chat = entry.getValue();
+            if (chat.items.isEmpty()) {
+                it.remove();
+                continue;
+            }
+            if (chat.blockedUntil > now) {
+                wait = Math.min(wait, chat.blockedUntil - now);
+                continue;
+            }
+            long globalWait = global.waitNanos(now);
+            if (globalWait > 0) {
+                wait = Math.min(wait, globalWait);
+                break;
+            }
+            long chatWait = chat.bucket.waitNanos(now);
+            if (chatWait > 0) {
+                wait = Math.min(wait, chatWait);
+                continue;
+            }
+            global.take();
+            chat.bucket.take();
+            Item item = chat.items.pollFirst();
+            queued--;
+            send(entry.getKey(), item);
+            // обслуженный чат уходит в конец круга
+            it.remove();
+            served.put(entry.getKey(), chat);
+            wait = 0;
+        }
+        chats.putAll(served);
+        return wait;
+    }
+
+    private void send(Long chatId, Item item) {
+        item.attempts++;
+        CompletableFuture<?> future;
+        try {
+            future = item.send.start();
+        } catch (TelegramApiException | RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> {
+            if (error == null) {
+                long nanos = System.nanoTime() - item.enqueuedAt;
+                sendNanos.addAndGet(nanos);
+                maxSendNanos.accumulateAndGet(nanos, Math::max);
+                sent.incrementAndGet();
+                item.result.complete(result);
+            } else {
+                onError(chatId, item, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+        });
+    }
+
+    private void onError(Long chatId, Item item, Throwable error) {
+        Integer retryAfter = error instanceof TelegramApiRequestException requestException
+                && requestException.getParameters() != null ? requestException.getParameters().getRetryAfter() : null;
+        if (retryAfter == null || item.attempts > maxRetries) {
+            if (retryAfter != null) {
+                dropped.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            item.result.completeExceptionally(error);
+            return;
+        }
+        retried.incrementAndGet();
+        lock.lock();
+        try {
+            Chat chat = chats.computeIfAbsent(chatId, id -> new Chat(new TokenBucket(chatRate, chatBurst, System.nanoTime())));
+            chat.blockedUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter);
+            chat.items.addFirst(item);
+            queued++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /** Суммарное время от постановки в очередь до ответа Bot API по успешным отправкам. */
+    public long getSendNanos() {
+        return sendNanos.get();
+    }
+
+    public long getMaxSendNanos() {
+        return maxSendNanos.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+}
@@ -0,0 +1,251 @@
+package org.example.service.spool;
+
+import org.example.models.GenerationJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальная очередь задач генерации в общей папке для отдельных процессов-исполнителей (профиль worker).
+ * Задача - небольшой properties-файл с параметрами GenerationJob и путем к исходному файлу, без байтов изображения.
+ * Файл пишется во временный и переносится в incoming атомарно, исполнитель забирает задачу переносом
+ * в claimed/&lt;worker-id&gt;, поэтому одну задачу получает ровно один процесс.
+ */
+@Component
+public class SpoolDirectory {
+
+    public record Claim(Path file, GenerationJob job, Path source) {
+    }
+
+    private static final String SUFFIX = ".job";
+
+    private final Path tmp;
+
+    private final Path incoming;
+
+    private final Path claimed;
+
+    private final Path failed;
+
+    private final int maxPending;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public SpoolDirectory(@Value("${spool.dir:${java.io.tmpdir}/stickpick-spool}") String dir,
+                          @Value("${spool.max-pending:64}") int maxPending,
+                          @Value("${jobs.node-id:}") String nodeId) throws IOException {
+        Path root = Paths.get(dir);
+        String workerId = (nodeId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId)
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        this.tmp = Files.createDirectories(root.resolve("tmp"));
+        this.incoming = Files.createDirectories(root.resolve("incoming"));
+        this.claimed = Files.createDirectories(root.resolve("claimed").resolve(workerId));
+        this.failed = Files.createDirectories(root.resolve("failed"));
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Кладет задачу в очередь.
+     *
+     * @return false если в очереди уже maxPending задач или запись не удалась
+     */
+    public boolean submit(GenerationJob job, Path source) {
+        if (getPending() >= maxPending) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        String name = String.format("%013x_%s%s", System.currentTimeMillis(), job.getFolderName(), SUFFIX);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(tmp, "job", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                toProperties(job, source).store(out, null);
+            }
+            Files.move(temp, incoming.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            submitted.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            deleteQuietly(temp);
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Забирает самую старую задачу, null если очередь пуста. */
+    public Claim claim() {
+        for (Path file : list(incoming)) {
+            Path target = claimed.resolve(file.getFileName());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // задачу забрал другой исполнитель
+                continue;
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(target)) {
+                Properties properties = new Properties();
+                properties.load(in);
+                taken.incrementAndGet();
+                return new Claim(target, toJob(properties), Paths.get(properties.getProperty("source")));
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                moveQuietly(target, failed);
+                failures.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    /** Задача принята исполнителем, дальше за ней следит журнал задач. */
+    public void done(Claim claim) {
+        deleteQuietly(claim.file());
+    }
+
+    /** Возвращает задачу в очередь, например когда исполнитель занят. */
+    public void unclaim(Claim claim) {
+        moveQuietly(claim.file(), incoming);
+    }
+
+    public void fail(Claim claim) {
+        failures.incrementAndGet();
+        moveQuietly(claim.file(), failed);
+    }
+
+    /** Возвращает в очередь задачи, которые этот исполнитель забрал до перезапуска. */
+    public int recoverClaims() {
+        List<Path> files = list(claimed);
+        files.forEach(file -> moveQuietly(file, incoming));
+        return files.size();
+    }
+
+    private List<Path> list(Path dir) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // имя начинается с времени постановки
+        Collections.sort(files);
+        return files;
+    }
+
+    private static Properties toProperties(GenerationJob job, Path source) {
+        Properties properties = new Properties();
+        if (job.getId() != null) {
+            properties.setProperty("id", job.getId().toString());
+        }
+        if (job.getOwner() != null) {
+            properties.setProperty("owner", job.getOwner());
+        }
+        if (job.getAttempts() != null) {
+            properties.setProperty("attempts", job.getAttempts().toString());
+        }
+        properties.setProperty("telegramUserId", job.getTelegramUserId().toString());
+        properties.setProperty("fileId", job.getFileId());
+        properties.setProperty("preset", job.getPreset());
+        properties.setProperty("sheetFormat", job.getSheetFormat());
+        if (job.getBrightnessLevel() != null) {
+            properties.setProperty("brightnessLevel", job.getBrightnessLevel().toString());
+        }
+        if (job.getSmallDetailsRemover() != null) {
+            properties.setProperty("smallDetailsRemover", job.getSmallDetailsRemover().toString());
+        }
+        if (job.getTier() != null) {
+            properties.setProperty("tier", job.getTier());
+        }
+        properties.setProperty("folderName", job.getFolderName());
+        properties.setProperty("source", source.toAbsolutePath().toString());
+        return properties;
+    }
+
+    private static GenerationJob toJob(Properties properties) {
+        GenerationJob job = new GenerationJob();
+        String id = properties.getProperty("id");
+        job.setId(id != null ? Long.valueOf(id) : null);
+        job.setOwner(properties.getProperty("owner"));
+        String attempts = properties.getProperty("attempts");
+        job.setAttempts(attempts != null ? Integer.valueOf(attempts) : null);
+        job.setStatus(GenerationJob.STATUS_RUNNING);
+        job.setTelegramUserId(Long.valueOf(properties.getProperty("telegramUserId")));
+        job.setFileId(properties.getProperty("fileId"));
+        job.setPreset(properties.getProperty("preset"));
+        job.setSheetFormat(properties.getProperty("sheetFormat"));
+        String brightnessLevel = properties.getProperty("brightnessLevel");
+        job.setBrightnessLevel(brightnessLevel != null ? Integer.valueOf(brightnessLevel) : null);
+        String smallDetailsRemover = properties.getProperty("smallDetailsRemover");
+        job.setSmallDetailsRemover(smallDetailsRemover != null ? Integer.valueOf(smallDetailsRemover) : null);
+        job.setTier(properties.getProperty("tier", GenerationJob.TIER_FULL));
+        job.setFolderName(properties.getProperty("folderName"));
+        return job;
+    }
+
+    private static void moveQuietly(Path file, Path dir) {
+        try {
+            Files.move(file, dir.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getPending() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(incoming, "*" + SUFFIX)) {
+            int count = 0;
+            for (Path ignored : stream) {
+                count++;
+            }
+            return count;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getTaken() {
+        return taken.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.service.spool;
+
+import jakarta.annotation.PreDestroy;
+import org.example.models.GenerationJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Исполнитель задач из SpoolDirectory. Включается в процессе с профилем worker (spool.worker.enabled),
+ * у которого своя куча: сборка мусора после больших листов не останавливает обработку сообщений в основном процессе.
+ */
+@Service
+public class SpoolWorker {
+
+    /** Запускает генерацию, false если исполнитель сейчас занят и задачу нужно вернуть в очередь. */
+    public interface Handler {
+        boolean run(GenerationJob job, Path source);
+    }
+
+    private final SpoolDirectory spoolDirectory;
+
+    private final boolean enabled;
+
+    private final int threads;
+
+    private final long pollIntervalMillis;
+
+    private final ExecutorService executor;
+
+    private volatile Handler handler;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong busy = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public SpoolWorker(SpoolDirectory spoolDirectory,
+                       @Value("${spool.worker.enabled:false}") boolean enabled,
+                       @Value("${spool.worker.threads:1}") int threads,
+                       @Value("${spool.poll-interval-ms:500}") long pollIntervalMillis) {
+        this.spoolDirectory = spoolDirectory;
+        this.enabled = enabled;
+        this.threads = threads;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "spool-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        spoolDirectory.recoverClaims();
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::loop);
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                if (!runOnce()) {
+                    TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** @return false если задач нет или исполнитель занят */
+    private boolean runOnce() {
+        Handler current = handler;
+        if (current == null) {
+            return false;
+        }
+        SpoolDirectory.Claim claim = spoolDirectory.claim();
+        if (claim == null) {
+            return false;
+        }
+        try {
+            if (current.run(claim.job(), claim.source())) {
+                accepted.incrementAndGet();
+                spoolDirectory.done(claim);
+                return true;
+            }
+            busy.incrementAndGet();
+            spoolDirectory.unclaim(claim);
+            return false;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failed.incrementAndGet();
+            spoolDirectory.fail(claim);
+            return true;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getBusy() {
+        return busy.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,290 @@
+package org.example.service.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Папки задач с результатами генерации (&lt;filepath&gt;/&lt;folderName&gt;/result.pdf и preview.pdf).
+ * Папка удаляется, когда отправка результата подтверждена, остальное вычищается в фоне по возрасту и по квоте.
+ * Задачи небольших форматов (storage.memory-formats) можно писать в storage.memory-dir на tmpfs, пока там есть место.
+ */
+@Service
+public class OutputStorage {
+
+    public static final String RESULT_FILE = "result.pdf";
+    public static final String PREVIEW_FILE = "preview.pdf";
+
+    /** Пишет содержимое файла. */
+    public interface Output {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private record Folder(Path path, long bytes, long modified) {
+    }
+
+    private final Path diskRoot;
+
+    private final Path memoryRoot;
+
+    private final Set<String> memoryFormats;
+
+    private final long maxBytes;
+
+    private final long memoryMaxBytes;
+
+    private final long maxAgeMillis;
+
+    private final long minAgeMillis;
+
+    private final long evictionIntervalSeconds;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "output-storage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // по последнему обходу
+    private volatile long diskBytes;
+    private volatile long memoryBytes;
+    private volatile int folders;
+
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    private final AtomicLong memoryFolders = new AtomicLong();
+
+    public OutputStorage(@Value("${filepath}") String filepath,
+                         @Value("${storage.memory-dir:}") String memoryDir,
+                         @Value("${storage.memory-formats:A4,A3}") String memoryFormats,
+                         @Value("${storage.max-bytes:5368709120}") long maxBytes,
+                         @Value("${storage.memory-max-bytes:268435456}") long memoryMaxBytes,
+                         @Value("${storage.max-age-hours:24}") long maxAgeHours,
+                         @Value("${storage.min-age-minutes:60}") long minAgeMinutes,
+                         @Value("${storage.eviction-interval-seconds:60}") long evictionIntervalSeconds) throws IOException {
+        this.diskRoot = Files.createDirectories(Paths.get(filepath)).toAbsolutePath().normalize();
+        this.memoryRoot = memoryDir.isEmpty() ? null
+                : Files.createDirectories(Paths.get(memoryDir)).toAbsolutePath().normalize();
+        this.memoryFormats = Arrays.stream(memoryFormats.split(","))
+                .map(String::trim)
+                .filter(format -> !format.isEmpty())
+                .collect(Collectors.toSet());
+        this.maxBytes = maxBytes;
+        this.memoryMaxBytes = memoryMaxBytes;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+        this.minAgeMillis = TimeUnit.MINUTES.toMillis(minAgeMinutes);
+        this.evictionIntervalSeconds = evictionIntervalSeconds;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        executor.scheduleWithFixedDelay(this::evict, 0, evictionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Создает папку новой задачи, для небольших форматов - в памяти, если она включена и не заполнена. */
+    public Path create(String folderName, String sheetFormat) throws IOException {
+        if (memoryRoot != null && memoryFormats.contains(sheetFormat) && memoryBytes < memoryMaxBytes) {
+            memoryFolders.incrementAndGet();
+            return Files.createDirectories(memoryRoot.resolve(folderName));
+        }
+        return Files.createDirectories(diskRoot.resolve(folderName));
+    }
+
+    /** Папка задачи: в памяти, если она там создана, иначе на диске. */
+    public Path folder(String folderName) {
+        if (memoryRoot != null) {
+            Path folder = memoryRoot.resolve(folderName);
+            if (Files.isDirectory(folder)) {
+                return folder;
+            }
+        }
+        return diskRoot.resolve(folderName);
+    }
+
+    public List<Path> resultFiles(String folderName) {
+        Path folder = folder(folderName);
+        return List.of(folder.resolve(RESULT_FILE), folder.resolve(PREVIEW_FILE));
+    }
+
+    /** Отправка результата подтверждена, папка больше не нужна. */
+    public void release(Path folder) {
+        Path normalized = folder.toAbsolutePath().normalize();
+        if (!isJobFolder(normalized)) {
+            return;
+        }
+        if (deleteRecursively(normalized) >= 0) {
+            released.incrementAndGet();
+        }
+    }
+
+    private boolean isJobFolder(Path folder) {
+        Path parent = folder.getParent();
+        return parent != null && (parent.equals(diskRoot) || parent.equals(memoryRoot));
+    }
+
+    /**
+     * Пишет файл целиком во временный рядом с target и переносит его на место,
+     * поэтому читатели никогда не видят недописанный PDF.
+     */
+    public static void writeAtomically(Path target, Output output) throws IOException {
+        Path dir = Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                output.write(out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void evict() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Folder> disk = scan(diskRoot);
+            List<Folder> memory = memoryRoot != null ? scan(memoryRoot) : List.of();
+            diskBytes = evict(disk, maxBytes, now);
+            memoryBytes = memoryRoot != null ? evict(memory, memoryMaxBytes, now) : 0;
+            folders = disk.size() + memory.size();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Удаляет папки старше maxAge, затем самые старые, пока занято больше quota.
+     * Папки моложе minAge не трогаются: в них может еще писать генератор.
+     *
+     * @param folders папки в порядке от старых к новым, из списка убираются удаленные
+     * @return занятый объем после удаления
+     */
+    private long evict(List<Folder> folders, long quota, long now) {
+        long total = folders.stream().mapToLong(Folder::bytes).sum();
+        for (Iterator<Folder> it = folders.iterator(); it.hasNext(); ) {
+            Folder folder = it.next();
+            long age = now - folder.modified();
+            boolean expired = maxAgeMillis > 0 && age > maxAgeMillis;
+            if (!expired && (total <= quota || age < minAgeMillis)) {
+                continue;
+            }
+            long bytes = deleteRecursively(folder.path());
+            if (bytes >= 0) {
+                total -= bytes;
+                evicted.incrementAndGet();
+                evictedBytes.addAndGet(bytes);
+                it.remove();
+            }
+        }
+        return total;
+    }
+
+    private List<Folder> scan(Path root) {
+        List<Folder> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : stream) {
+                long bytes = 0;
+                long modified = Files.getLastModifiedTime(dir).toMillis();
+                try (Stream<Path> files = Files.walk(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        if (Files.isRegularFile(file)) {
+                            bytes += Files.size(file);
+                            modified = Math.max(modified, Files.getLastModifiedTime(file).toMillis());
+                        }
+                    }
+                } catch (NoSuchFileException | UncheckedIOException e) {
+                    // папку удалили во время обхода
+                    continue;
+                }
+                result.add(new Folder(dir, bytes, modified));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        result.sort(Comparator.comparingLong(Folder::modified));
+        return result;
+    }
+
+    /** @return число освобожденных байт или -1, если удалить не удалось */
+    private static long deleteRecursively(Path dir) {
+        long bytes = 0;
+        try (Stream<Path> files = Files.walk(dir)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : paths) {
+                if (Files.isRegularFile(path)) {
+                    bytes += Files.size(path);
+                }
+                Files.deleteIfExists(path);
+            }
+            return bytes;
+        } catch (NoSuchFileException e) {
+            return bytes;
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public int getFolders() {
+        return folders;
+    }
+
+    public long getReleased() {
+        return released.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    public long getMemoryFolders() {
+        return memoryFolders.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
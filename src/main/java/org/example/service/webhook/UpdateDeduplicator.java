@@ -0,0 +1,107 @@
+package org.example.service.webhook;
+
+import jakarta.annotation.PreDestroy;
+import org.example.dao.ProcessedUpdateDao;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Отсев повторно доставленных апдейтов по update_id. Telegram повторяет запрос, если webhook не ответил 2xx.
+ * Недавние update_id помнятся локально; при нескольких экземплярах за балансировщиком (bot.multi-instance)
+ * или с webhook.dedupe.shared апдейт дополнительно отмечается в таблице processed_update, старые строки
+ * удаляются по таймеру.
+ */
+@Service
+public class UpdateDeduplicator {
+
+    private final ProcessedUpdateDao processedUpdateDao;
+
+    private final boolean shared;
+
+    private final long retentionMillis;
+
+    private final LinkedHashMap<Integer, Boolean> recent;
+
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "processed-update-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public UpdateDeduplicator(ProcessedUpdateDao processedUpdateDao,
+                              @Value("${webhook.dedupe.local-size:10000}") int localSize,
+                              @Value("${webhook.dedupe.shared:false}") boolean shared,
+                              @Value("${webhook.dedupe.retention-hours:24}") long retentionHours,
+                              @Value("${bot.multi-instance:false}") boolean multiInstance) {
+        this.processedUpdateDao = processedUpdateDao;
+        // повтор может прийти на другой экземпляр
+        this.shared = shared || multiInstance;
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+        this.recent = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+                return size() > localSize;
+            }
+        };
+        if (shared) {
+            cleaner.scheduleWithFixedDelay(this::cleanup, 1, 1, TimeUnit.HOURS);
+        }
+    }
+
+    /** true, если апдейт получен впервые. */
+    public boolean firstSeen(Integer updateId) {
+        synchronized (recent) {
+            if (recent.putIfAbsent(updateId, Boolean.TRUE) != null) {
+                duplicates.incrementAndGet();
+                return false;
+            }
+        }
+        if (shared && !processedUpdateDao.markReceived(updateId.longValue())) {
+            duplicates.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    public void forget(Integer updateId) {
+        synchronized (recent) {
+            recent.remove(updateId);
+        }
+        if (shared) {
+            processedUpdateDao.delete(updateId.longValue());
+        }
+    }
+
+    private void cleanup() {
+        try {
+            processedUpdateDao.deleteReceivedBefore(new Date(System.currentTimeMillis() - retentionMillis));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdown();
+    }
+}
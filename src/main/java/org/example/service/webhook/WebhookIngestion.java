@@ -0,0 +1,91 @@
+package org.example.service.webhook;
+
+import jakarta.annotation.PreDestroy;
+import org.example.controllers.TelegramBot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченная очередь между webhook и UpdateDispatcher. Запрос Telegram подтверждается сразу после offer,
+ * обработка идет в отдельном потоке. Если очередь заполнена, webhook отвечает ошибкой и Telegram повторит доставку позже.
+ */
+@Service
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookIngestion {
+
+    private final TelegramBot telegramBot;
+
+    private final UpdateDeduplicator deduplicator;
+
+    private final BlockingQueue<Update> queue;
+
+    private final Thread drainer;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public WebhookIngestion(TelegramBot telegramBot, UpdateDeduplicator deduplicator,
+                            @Value("${webhook.queue-capacity:1024}") int capacity) {
+        this.telegramBot = telegramBot;
+        this.deduplicator = deduplicator;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.drainer = new Thread(this::drain, "webhook-ingestion");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * @return false, если очередь заполнена
+     */
+    public boolean offer(Update update) {
+        received.incrementAndGet();
+        if (update.getUpdateId() != null && !deduplicator.firstSeen(update.getUpdateId())) {
+            return true;
+        }
+        if (!queue.offer(update)) {
+            rejected.incrementAndGet();
+            if (update.getUpdateId() != null) {
+                // апдейт придет повторно, он не должен считаться полученным
+                deduplicator.forget(update.getUpdateId());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // блокируется, если переполнен UpdateDispatcher
+                telegramBot.onUpdateReceived(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainer.interrupt();
+    }
+}
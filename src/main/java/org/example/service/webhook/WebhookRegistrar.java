@@ -0,0 +1,50 @@
+package org.example.service.webhook;
+
+import org.example.config.TelegramConfig;
+import org.example.controllers.TelegramBot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.util.List;
+
+/**
+ * Регистрирует webhook в Telegram после старта. Long polling в этом режиме выключается свойством
+ * telegrambots.enabled=false, иначе стартер зарегистрирует бота и удалит webhook.
+ * Все экземпляры за балансировщиком регистрируют один и тот же публичный адрес, вызов идемпотентен.
+ * Несколько экземпляров запускаются с bot.multi-instance=true (профиль multi-instance): кэш пользователей
+ * и буфер записи выключаются, повторы апдейтов отсеиваются через processed_update.
+ */
+@Component
+@ConditionalOnProperty(name = "bot.mode", havingValue = "webhook")
+public class WebhookRegistrar {
+
+    private final TelegramBot telegramBot;
+
+    private final TelegramConfig config;
+
+    private final boolean register;
+
+    public WebhookRegistrar(TelegramBot telegramBot, TelegramConfig config,
+                            @Value("${bot.webhook.register:true}") boolean register) {
+        this.telegramBot = telegramBot;
+        this.config = config;
+        this.register = register;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void register() throws TelegramApiException {
+        if (!register) {
+            return;
+        }
+        SetWebhook setWebhook = new SetWebhook(config.getWebhookUrl() + config.getWebhookPath());
+        setWebhook.setMaxConnections(config.getWebhookMaxConnections());
+        setWebhook.setAllowedUpdates(List.of("message", "callback_query"));
+        setWebhook.setSecretToken(config.getWebhookSecret());
+        telegramBot.execute(setWebhook);
+    }
+}
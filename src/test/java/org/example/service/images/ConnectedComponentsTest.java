@@ -0,0 +1,102 @@
+package org.example.service.images;
+
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.RasterPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Разметка сериями по полосам сравнивается с обходом в ширину по отдельным точкам.
+ */
+class ConnectedComponentsTest {
+
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 419;
+
+    private final RasterPool pool = new RasterPool(64L << 20);
+
+    private final TileExecutor tileExecutor = new TileExecutor(TileExecutor.Mode.PER_JOB, 4, 8);
+
+    private final ConnectedComponents connectedComponents = new ConnectedComponents(tileExecutor, pool);
+
+    @AfterEach
+    void shutdown() {
+        tileExecutor.shutdown();
+    }
+
+    @Test
+    void removeSmallMatchesFloodFill() {
+        for (int minArea : new int[]{2, 5, 40}) {
+            for (double density : new double[]{0.2, 0.45, 0.6}) {
+                BitMask actual = randomMask(minArea, density);
+                BitMask expected = randomMask(minArea, density);
+                int removed = connectedComponents.removeSmall(actual, minArea);
+                assertEquals(floodFillRemove(expected, minArea), removed, "minArea=" + minArea + " density=" + density);
+                for (int y = 0; y < HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        assertEquals(expected.get(x, y), actual.get(x, y),
+                                "minArea=" + minArea + " density=" + density + " x=" + x + " y=" + y);
+                    }
+                }
+                pool.release(actual);
+                pool.release(expected);
+            }
+        }
+    }
+
+    private BitMask randomMask(long seed, double density) {
+        Random random = new Random(seed);
+        BitMask mask = pool.mask(WIDTH, HEIGHT);
+        mask.clearRows(0, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (random.nextDouble() < density) {
+                    mask.set(x, y);
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static int floodFillRemove(BitMask mask, int minArea) {
+        boolean[] seen = new boolean[WIDTH * HEIGHT];
+        int removed = 0;
+        for (int y0 = 0; y0 < HEIGHT; y0++) {
+            for (int x0 = 0; x0 < WIDTH; x0++) {
+                if (!mask.get(x0, y0) || seen[y0 * WIDTH + x0]) {
+                    continue;
+                }
+                List<int[]> component = new ArrayList<>();
+                ArrayDeque<int[]> queue = new ArrayDeque<>();
+                queue.add(new int[]{x0, y0});
+                seen[y0 * WIDTH + x0] = true;
+                while (!queue.isEmpty()) {
+                    int[] point = queue.poll();
+                    component.add(point);
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dx = -1; dx <= 1; dx++) {
+                            int x = point[0] + dx;
+                            int y = point[1] + dy;
+                            if (x >= 0 && y >= 0 && x < WIDTH && y < HEIGHT && mask.get(x, y) && !seen[y * WIDTH + x]) {
+                                seen[y * WIDTH + x] = true;
+                                queue.add(new int[]{x, y});
+                            }
+                        }
+                    }
+                }
+                if (component.size() < minArea) {
+                    component.forEach(point -> mask.clear(point[0], point[1]));
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+}
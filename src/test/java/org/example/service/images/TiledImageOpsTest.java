@@ -0,0 +1,84 @@
+package org.example.service.images;
+
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.GrayRaster;
+import org.example.service.images.raster.RasterPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Полосы TileExecutor должны давать тот же результат, что и однопоточный проход, бит в бит.
+ */
+class TiledImageOpsTest {
+
+    private static final int WIDTH = 333;
+    private static final int HEIGHT = 517;
+
+    private final RasterPool pool = new RasterPool(64L << 20);
+
+    private final TileExecutor banded = new TileExecutor(TileExecutor.Mode.PER_JOB, 4, 8);
+
+    private final TileExecutor single = new TileExecutor(TileExecutor.Mode.INTER_JOB, 1, 8);
+
+    private final TiledImageOps bandedOps = new TiledImageOps(banded, pool, new ConnectedComponents(banded, pool));
+
+    private final TiledImageOps singleOps = new TiledImageOps(single, pool, new ConnectedComponents(single, pool));
+
+    @AfterEach
+    void shutdown() {
+        banded.shutdown();
+        single.shutdown();
+    }
+
+    @Test
+    void thresholdMatchesSinglePassAndDefinition() {
+        GrayRaster gray = randomGray(1);
+        BitMask expected = singleOps.threshold(gray, 100);
+        BitMask actual = bandedOps.threshold(gray, 100);
+        assertSameMask(expected, actual);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(gray.get(x, y) < 100, actual.get(x, y), "x=" + x + " y=" + y);
+            }
+        }
+    }
+
+    @Test
+    void orderedDitherMatchesSinglePass() {
+        GrayRaster gray = randomGray(2);
+        assertSameMask(singleOps.orderedDither(gray), bandedOps.orderedDither(gray));
+    }
+
+    @Test
+    void boxBlurMatchesSinglePass() {
+        GrayRaster gray = randomGray(3);
+        GrayRaster expected = singleOps.boxBlur(gray, 3);
+        GrayRaster actual = bandedOps.boxBlur(gray, 3);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(expected.get(x, y), actual.get(x, y), "x=" + x + " y=" + y);
+            }
+        }
+    }
+
+    private GrayRaster randomGray(long seed) {
+        Random random = new Random(seed);
+        GrayRaster gray = pool.gray(WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                gray.set(x, y, random.nextInt(256));
+            }
+        }
+        return gray;
+    }
+
+    private static void assertSameMask(BitMask expected, BitMask actual) {
+        for (int i = 0; i < expected.getWordsPerRow() * expected.getHeight(); i++) {
+            assertEquals(expected.getWords()[i], actual.getWords()[i], "word " + i);
+        }
+    }
+}
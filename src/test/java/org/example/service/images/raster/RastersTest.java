@@ -0,0 +1,73 @@
+package org.example.service.images.raster;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Чтение DataBuffer напрямую должно давать ту же яркость, что и getRGB, а маска - тот же TYPE_BYTE_BINARY.
+ */
+class RastersTest {
+
+    private final RasterPool pool = new RasterPool(16L << 20);
+
+    @Test
+    void grayMatchesGetRgbForDirectTypes() {
+        for (int type : new int[]{BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                BufferedImage.TYPE_USHORT_565_RGB}) {
+            BufferedImage image = randomImage(type, 257, 31);
+            GrayRaster gray = Rasters.toGray(image, pool);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    int argb = image.getRGB(x, y);
+                    int expected = Rasters.luminance((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+                    assertEquals(expected, gray.get(x, y), "type=" + type + " x=" + x + " y=" + y);
+                }
+            }
+            pool.release(gray);
+        }
+    }
+
+    @Test
+    void imageMatchesMask() {
+        Random random = new Random(5);
+        BitMask mask = pool.mask(131, 17);
+        mask.clearRows(0, mask.getHeight());
+        for (int i = 0; i < 700; i++) {
+            mask.set(random.nextInt(mask.getWidth()), random.nextInt(mask.getHeight()));
+        }
+        BufferedImage image = Rasters.toImage(mask);
+        for (int y = 0; y < mask.getHeight(); y++) {
+            for (int x = 0; x < mask.getWidth(); x++) {
+                assertEquals(mask.get(x, y) ? 0 : 1, image.getRaster().getSample(x, y, 0), "x=" + x + " y=" + y);
+            }
+        }
+    }
+
+    @Test
+    void poolRoundsUpByAtMostAnEighth() {
+        for (int length : new int[]{65, 1000, 4097, 1 << 20, 9933 * 14043}) {
+            int capacity = pool.bytes(length).length;
+            assertTrue(capacity >= length && capacity <= length + length / 8 + 8, length + " -> " + capacity);
+        }
+    }
+
+    private static BufferedImage randomImage(int type, int width, int height) {
+        Random random = new Random(type);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < image.getRaster().getNumBands(); band++) {
+                    int bits = image.getSampleModel().getSampleSize(band);
+                    image.getRaster().setSample(x, y, band, random.nextInt(1 << bits));
+                }
+            }
+        }
+        return image;
+    }
+}
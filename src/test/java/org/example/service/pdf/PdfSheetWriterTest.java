@@ -0,0 +1,86 @@
+package org.example.service.pdf;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.example.models.SheetFormat;
+import org.example.service.images.raster.BitMask;
+import org.example.service.images.raster.RasterPool;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Страница CCITT G4 после чтения PDFBox должна совпадать с маской точка в точку.
+ */
+class PdfSheetWriterTest {
+
+    private final RasterPool pool = new RasterPool(16L << 20);
+
+    private final PdfSheetWriter writer = new PdfSheetWriter(1L << 20);
+
+    @Test
+    void ccittPagesDecodeToTheSameMasks() throws Exception {
+        BitMask[] masks = {randomMask(1, 213, 301), randomMask(2, 301, 213)};
+        Path target = Files.createTempFile("sheet", ".pdf");
+        try {
+            writer.writeBinary(target, SheetFormat.A4, masks.length, page -> masks[page]);
+            try (PDDocument document = Loader.loadPDF(target.toFile())) {
+                assertEquals(masks.length, document.getNumberOfPages());
+                for (int i = 0; i < masks.length; i++) {
+                    assertSameImage(masks[i], pageImage(document.getPage(i)));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    private BitMask randomMask(long seed, int width, int height) {
+        Random random = new Random(seed);
+        BitMask mask = pool.mask(width, height);
+        mask.clearRows(0, height);
+        // пятна, а не шум, чтобы в G4 были и длинные серии
+        for (int i = 0; i < 60; i++) {
+            int cx = random.nextInt(width);
+            int cy = random.nextInt(height);
+            int r = 1 + random.nextInt(12);
+            for (int y = Math.max(0, cy - r); y < Math.min(height, cy + r); y++) {
+                for (int x = Math.max(0, cx - r); x < Math.min(width, cx + r); x++) {
+                    mask.set(x, y);
+                }
+            }
+        }
+        for (int i = 0; i < 500; i++) {
+            mask.set(random.nextInt(width), random.nextInt(height));
+        }
+        return mask;
+    }
+
+    private static BufferedImage pageImage(PDPage page) throws Exception {
+        for (COSName name : page.getResources().getXObjectNames()) {
+            if (page.getResources().getXObject(name) instanceof PDImageXObject image) {
+                return image.getImage();
+            }
+        }
+        throw new AssertionError("page has no image");
+    }
+
+    private static void assertSameImage(BitMask mask, BufferedImage image) {
+        assertEquals(mask.getWidth(), image.getWidth());
+        assertEquals(mask.getHeight(), image.getHeight());
+        for (int y = 0; y < mask.getHeight(); y++) {
+            for (int x = 0; x < mask.getWidth(); x++) {
+                boolean black = (image.getRGB(x, y) & 0xFFFFFF) == 0;
+                assertEquals(mask.get(x, y), black, "x=" + x + " y=" + y);
+            }
+        }
+    }
+}